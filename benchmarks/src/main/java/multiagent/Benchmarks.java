@@ -0,0 +1,22 @@
+package multiagent;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the JMH command line options given as arguments, always
+ * measuring the allocation rate along with the throughput (GC profiler).
+ * <p> Usage: java -jar target/benchmarks.jar [JMH options], e.g.
+ * java -jar target/benchmarks.jar SimulationBenchmark.doOneStep -p size=28,512 -p agents=6
+ */
+public class Benchmarks{
+
+	public static void main(String[] args) throws Exception{
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
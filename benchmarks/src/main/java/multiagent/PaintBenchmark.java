@@ -0,0 +1,63 @@
+package multiagent;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of WorldPanel.paintComponent, drawing into an offscreen image.
+ * <p> The image is at most IMAGE_SIDE pixels per side: on larger grids the cells outside it
+ * are still visited by paintComponent, but their drawing is clipped away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark{
+
+	static final int IMAGE_SIDE = 1024;
+
+	@Param({"28", "512", "4096"})
+	int size;
+
+	@Param({"6", "200", "2000"})
+	int agents;
+
+	@Param({"true", "false"})
+	boolean attract;
+
+	@Param({"true", "false"})
+	boolean repulse;
+
+	@Param({"true", "false"})
+	boolean flock;
+
+	WorldPanel panel;
+	BufferedImage image;
+	Graphics2D graphics;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		AgentSim sim = SimulationBenchmark.newSimulation(size, agents, attract, repulse, flock);
+		panel = new WorldPanel(sim, 20);
+		Dimension preferred = panel.getPreferredSize();
+		image = new BufferedImage(Math.min(preferred.width, IMAGE_SIDE), Math.min(preferred.height, IMAGE_SIDE), BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		panel.close();
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage paintComponent(){
+		panel.paintComponent(graphics);
+		return image;
+	}
+}
@@ -0,0 +1,104 @@
+package multiagent;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the simulation hot paths, for every combination of grid size, number of agents
+ * and potentials enabled. A parameter can be restricted from the command line, e.g. -p size=28.
+ * <p> Each trial builds a new simulation from a fixed seed, with weeds on one cell in twenty
+ * as in the default setup of WorldPanel, and lets it run for WARM_UP_STEPS steps
+ * so that the potentials and the open tasks are those of a simulation in progress.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SimulationBenchmark{
+
+	/**agent steps performed before measuring*/
+	static final int WARM_UP_STEPS = 1000;
+
+	@Param({"28", "512", "4096"})
+	int size;
+
+	@Param({"6", "200", "2000"})
+	int agents;
+
+	@Param({"true", "false"})
+	boolean attract;
+
+	@Param({"true", "false"})
+	boolean repulse;
+
+	@Param({"true", "false"})
+	boolean flock;
+
+	AgentSim sim;
+	Agent agent;
+	Cell weed;
+	List<Cell> choices;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		sim = newSimulation(size, agents, attract, repulse, flock);
+		agent = sim.agents.get(0);
+		weed = sim.world.getWeedRemained() > 0 ? sim.world.getWeed(0) : sim.world.getCell(size / 2, size / 2);
+		int row = Math.min(size - 2, Math.max(1, weed.getRow()));
+		int col = Math.min(size - 2, Math.max(1, weed.getCol()));
+		choices = Arrays.asList(sim.world.getCell(row - 1, col), sim.world.getCell(row - 1, col + 1), sim.world.getCell(row, col + 1));
+	}
+
+	/**
+	 * Creates a simulation from a fixed seed and runs it for WARM_UP_STEPS steps.
+	 */
+	static AgentSim newSimulation(int size, int agents, boolean attract, boolean repulse, boolean flock){
+		AgentSim sim = new AgentSim(size, size, Math.max(1, size * size / 20), agents, 42L);
+		sim.world.useAttract(attract);
+		sim.world.useRepulse(repulse);
+		sim.world.useFlock(flock);
+		for(int i = 0; i < WARM_UP_STEPS; i++){
+			sim.doOneStep();
+			sim.world.decayPotentials();
+		}
+		return sim;
+	}
+
+	@Benchmark
+	public boolean doOneStep(){
+		boolean over = sim.doOneStep();
+		sim.world.decayPotentials();
+		return over;
+	}
+
+	@Benchmark
+	public Action assignTasks(){
+		agent.assignTasks(sim.agents);
+		return agent.nextAction();
+	}
+
+	@Benchmark
+	public Task updateState(){
+		agent.updateState(weed, null);
+		return agent.getCurrentTask();
+	}
+
+	@Benchmark
+	public Cell chooseByProbability(){
+		return agent.chooseByProbability(choices);
+	}
+
+	@Benchmark
+	public LinkedList<Task> getUncompletedTask(){
+		return sim.world.getUncompletedTask();
+	}
+
+	@Benchmark
+	public List<Integer> getAgents(){
+		return sim.world.getAgents(sim.world.getAgentPosition(agent.getId()));
+	}
+}
@@ -0,0 +1,129 @@
+package multiagent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class runs a simulator with every agent as an actor (see AgentActor).
+ * <p> Simulated time advances by ticks. At every tick each agent is asked to decide its
+ * next action: the agents decide concurrently, reading the world as left by the previous
+ * tick, and submit their action to this class, which acts as the arbiter of the world.
+ * When every agent has submitted (a barrier per tick), the actions are executed one at
+ * a time in the order in which they were submitted: a move towards a cell that is occupied
+ * at that moment is rejected and the agent stays where it is.
+ * <p> Since the agents that decide first are served first, the outcome of a tick depends on
+ * the scheduling of the threads, as for drones acting asynchronously.
+ * Use AgentSim.doOneRound() for a reproducible parallel execution.
+ * <p> Actors do not block, so by default they share the common fork-join pool; any Executor
+ * can be given instead, such as a pool of virtual threads where the runtime provides them.
+ */
+public class ActorSim{
+
+	/**Capacity of the mailbox of each agent.*/
+	private static final int MAILBOX_CAPACITY = 4;
+
+	/**the simulator*/
+	private final AgentSim sim;
+
+	/**the actors, in the same order as the agents of the simulator*/
+	private final AgentActor[] actors;
+
+	/**the actors that have submitted their action during the current tick, in order of submission*/
+	private final Queue<AgentActor> submitted = new ConcurrentLinkedQueue<AgentActor>();
+
+	/**barrier of the tick: every agent arrives once it has submitted*/
+	private final Phaser barrier;
+
+	/**first failure of an actor during the current tick*/
+	private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+	/**
+	 * Runs the agents of the given simulator on the common fork-join pool.
+	 * @param sim the simulator, whose agents must have been initialized.
+	 */
+	public ActorSim(AgentSim sim){
+		this(sim, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Runs the agents of the given simulator on the given executor.
+	 * @param sim the simulator, whose agents must have been initialized.
+	 * @param executor where the agents run.
+	 */
+	public ActorSim(AgentSim sim, Executor executor){
+		this.sim = sim;
+		this.actors = new AgentActor[sim.agents.size()];
+		for(int i = 0; i < actors.length; i++)
+			actors[i] = new AgentActor(sim.agents.get(i), this, executor, MAILBOX_CAPACITY);
+		this.barrier = new Phaser(actors.length);
+	}
+
+	/**
+	 * Executes one tick: every agent decides its next action, then the actions are
+	 * executed in order of submission and the potentials decay as many steps as there are agents.
+	 * Blocks the calling thread until the tick is over.
+	 * @return true if the simulation is over.
+	 */
+	public boolean tick(){
+		StepEvent event = new StepEvent();
+		event.begin();
+		int phase = barrier.getPhase();
+		for(AgentActor actor : actors)
+			actor.tell(AgentActor.Message.DECIDE);
+		barrier.awaitAdvance(phase);
+
+		RuntimeException e = failure.getAndSet(null);
+		if(e != null){
+			submitted.clear();
+			throw e;
+		}
+
+		//l'arbitro esegue le azioni nell'ordine in cui sono arrivate
+		World world = sim.world;
+		AgentActor actor;
+		while((actor = submitted.poll()) != null){
+			Agent agent = actor.agent;
+			boolean rejected = false;
+			if(agent.nextAction() == Action.moveToLocation && agent.getCurrentTask() != null){
+				Cell to = agent.getCurrentTask().getCell();
+				rejected = world.isOccupied(to) && !to.equals(world.getAgentPosition(agent.getId()));
+			}
+			sim.commit(agent, rejected);
+		}
+		sim.decayPotentials(actors.length);
+		boolean over = sim.isOver();
+		sim.commit(event, actors.length, over);
+		return over;
+	}
+
+	/**
+	 * Returns the simulator run by this class.
+	 * @return the simulator.
+	 */
+	public AgentSim getSimulator(){
+		return sim;
+	}
+
+	/**Lets an agent decide its next action, called by the actors.*/
+	void decide(Agent agent){
+		sim.decide(agent);
+	}
+
+	/**
+	 * Records that an actor has decided its action for the current tick.
+	 * Called by the actors, from any thread.
+	 */
+	void submit(AgentActor actor){
+		submitted.add(actor);
+		barrier.arrive();
+	}
+
+	/**
+	 * Records the failure of an actor, rethrown by tick() once the tick is over.
+	 * Called by the actors, from any thread.
+	 */
+	void fail(RuntimeException e){
+		failure.compareAndSet(null, e);
+	}
+}
@@ -1,6 +1,7 @@
 package multiagent;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 /**
@@ -35,6 +36,8 @@ public class Agent implements Serializable{
 
 	//cella vecchia
 	private Cell old_position;
+	//cella vecchia prima dell'ultima decisione, per annullare una mossa rifiutata
+	private Cell previous_old_position;
 
 	/**task currently under execution by this agent.*/
 	private Task currentTask;
@@ -47,6 +50,36 @@ public class Agent implements Serializable{
 
 	/**instance of the current world class on which the agent is acting**/
 	private World world;
+
+	/**stream of random numbers used by the stochastic decisions of this agent*/
+	private RandomStream random;
+
+	/**distance within which the other agents are flock mates*/
+	private static final int FLOCK_RADIUS = 4;
+	/**square of the cosine of the half-aperture (75 degrees) of the cone in which the leader is searched*/
+	private static final double FLOCK_CONE_COS2 = Math.pow(Math.cos(Math.toRadians(75)), 2);
+
+	/**reusable buffer for the ids of the flock mates*/
+	private int[] mates = new int[8];
+
+	/**reusable buffers for the grid indexes of the candidate cells of a move, their potential and their rank*/
+	private final int[] candidates = new int[8];
+	private final double[] candidateValues = new double[8];
+	private final int[] candidateOrder = new int[8];
+
+	/**true if the last move chosen by calculateNewDir is an escape move*/
+	private boolean escaped;
+
+	/**spray task awarded to this agent by an auction and not done yet, null if none*/
+	private Task contract;
+
+	/**bidders of an auction beyond which the bids are computed in parallel, in groups of this size*/
+	private static final int PARALLEL_BIDS = 64;
+
+	/**reusable buffers for the weeds seen around the agent and for the bidders of its auctions*/
+	private final int[] sensed = new int[8];
+	private int[] bidderIds = new int[16];
+	private final List<Agent> bidders = new ArrayList<Agent>();
 	
 	/**
 	 * Constructor for this class.
@@ -55,13 +88,81 @@ public class Agent implements Serializable{
 	 * @param world an instance of the world used to retrieve information and tasks
 	 */
 	public Agent(int id, Cell c, World world){
+		this(id, c, world, world.getRandom().split());
+	}
+
+	/**
+	 * Constructor for this class.
+	 * @param id identifier for this agent.
+	 * @param c initial agent position. 
+	 * @param world an instance of the world used to retrieve information and tasks
+	 * @param random the stream of random numbers owned by this agent.
+	 */
+	public Agent(int id, Cell c, World world, RandomStream random){
 		this.id=id;
 		this.world = world;
+		this.random = random;
 		position=c;
 		old_position = null;
 		currentAction = Action.publishNextTask;
 	}
 
+	/**
+	 * Constructor reading back an agent written by writeTo.
+	 * @param in the snapshot.
+	 * @param world the world, already read back from the same snapshot.
+	 * @throws IOException if the snapshot cannot be read.
+	 */
+	Agent(Snapshot in, World world) throws IOException{
+		this.world = world;
+		this.id = in.getInt();
+		this.position = readCell(in);
+		this.old_position = readCell(in);
+		this.previous_old_position = readCell(in);
+		Cell taskCell = readCell(in);
+		this.currentTask = taskCell == null ? null : new Task(taskCell);
+		this.currentAction = Action.values()[in.getInt()];
+		this.random = in.getRandom();
+		int pending = in.getInt();
+		for(int i = 0; i < pending; i++)
+			pendingTasks.add(new Task(readCell(in)));
+		Cell contractCell = readCell(in);
+		if(contractCell != null){
+			this.contract = new Task(contractCell);
+			world.award(contract, id);
+		}
+	}
+
+	/**
+	 * Writes the state of this agent to a snapshot: position, heading, task, action, random stream,
+	 * pending tasks and contract.
+	 * @throws IOException if the snapshot cannot be written.
+	 */
+	void writeTo(Snapshot out) throws IOException{
+		out.putInt(id);
+		writeCell(out, position);
+		writeCell(out, old_position);
+		writeCell(out, previous_old_position);
+		writeCell(out, currentTask == null ? null : currentTask.getCell());
+		out.putInt(currentAction.ordinal());
+		out.putRandom(random);
+		out.putInt(pendingTasks.size());
+		for(Task t : pendingTasks)
+			writeCell(out, t.getCell());
+		writeCell(out, contract == null ? null : contract.getCell());
+	}
+
+	private static void writeCell(Snapshot out, Cell cell) throws IOException{
+		out.putInt(cell == null ? -1 : cell.getRow());
+		out.putInt(cell == null ? -1 : cell.getCol());
+	}
+
+	private Cell readCell(Snapshot in) throws IOException{
+		int row = in.getInt();
+		int col = in.getInt();
+		return row < 0 ? null : world.getCell(row, col);
+	}
+
 	/**
 	 * Returns the agent identifier.
 	 * @return this agent identifier.
@@ -86,6 +187,14 @@ public class Agent implements Serializable{
 		return currentTask;
 	}
 
+	/**
+	 * Returns the spray task awarded to the agent by an auction.
+	 * @return the task, null if the agent has no contract.
+	 */
+	public Task getContract(){
+		return contract;
+	}
+
 	/**
 	 * Checks whether the pending tasks list is empty.
 	 * @return true if the pending tasks list is empty, otherwise false.
@@ -138,36 +247,10 @@ public class Agent implements Serializable{
 
 	//quando sono diretto verso il muro, e non posso scegliere tra le tre direzioni ammissibili solitamente
 	public Cell escapeMove(int myRow,int myCol) {
-		List<Cell> accessible = new ArrayList<Cell>();
-		//diag su sx
-		if(this.world.isValid(myRow + 1, myCol+1)) {
-			accessible.add(this.world.getCell(myRow + 1, myCol+1));
-		}//su
-		if(this.world.isValid(myRow + 1, myCol)){
-			accessible.add(this.world.getCell(myRow + 1, myCol));
-		}//sx
-		if(this.world.isValid(myRow, myCol+1)){
-			accessible.add(this.world.getCell(myRow, myCol+1));
-		}//diag giu dx
-		if(this.world.isValid(myRow -1, myCol-1)) {
-			accessible.add(this.world.getCell(myRow - 1, myCol-1));
-		}//giu
-		if(this.world.isValid(myRow - 1, myCol)){
-			accessible.add(this.world.getCell(myRow - 1, myCol));
-		}//dx
-		if(this.world.isValid(myRow, myCol-1)){
-			accessible.add(this.world.getCell(myRow, myCol-1));
-		}//diag giu sx
-		if(this.world.isValid(myRow - 1, myCol+1)){
-			accessible.add(this.world.getCell(myRow - 1, myCol+1));
-		}//diag su dx
-		if(this.world.isValid(myRow+1, myCol-1)){
-			accessible.add(this.world.getCell(myRow+1, myCol-1));
-		}
-		//pesco random tra gli elementi dell'array
-		int selectable = accessible.size() - 1;
-		int nextMove = 0 + (int)(Math.random() * ((selectable - 0) + 1));
-		return accessible.get(nextMove);
+		//le celle intorno dentro la griglia, nell'ordine di Neighbourhood
+		int accessible = this.world.cellsAround(myRow, myCol, candidates);
+		//pesco random tra queste
+		return this.world.cellAt(candidates[random.nextInt(accessible)]);
 	}
 
 	/** 
@@ -183,185 +266,93 @@ public class Agent implements Serializable{
 
 	//tra le tre direzioni ammissibili, in base al potenziale associo una probabilità a ciascuna e scelgo random
 	public Cell chooseByProbability(List<Cell> actual) {
-		List<ConfCell> toSort = new ArrayList<ConfCell>();
-		for(int i=0;i<actual.size();i++){
-			ConfCell p = new ConfCell(actual.get(i),actual.get(i).getAttractivePot() - actual.get(i).lastVisited());
-			toSort.add(p);
-		}
-		//le ordino in base al valore del potenziale
-		Collections.sort(toSort, new Comparator<ConfCell>() {
-  			public int compare(ConfCell c1, ConfCell c2) {
-    			if (c1.value > c2.value) return -1;
-    			if (c1.value < c2.value) return 1;
-    			return 0;
-  		}	});
-
-		//inserisco copie delle stesse, in baso al loro valore(per aumentare la prob di essere scelte)
-		List<ConfCell> sorted = new ArrayList<ConfCell>();
-		if(this.world.isRepulseEnable()){
-			for(int i=0;i<toSort.size();i++){
-				if(i == 0) {
-					sorted.add(toSort.get(i));
-					sorted.add(toSort.get(i));
-					sorted.add(toSort.get(i));
-					sorted.add(toSort.get(i));
-					sorted.add(toSort.get(i));
-					sorted.add(toSort.get(i));
-				}
-				else if(i == 1) {
-					sorted.add(toSort.get(i));
-					sorted.add(toSort.get(i));
-				}
-				else if(i == 2)
-					sorted.add(toSort.get(i));
-				else
-					sorted.add(toSort.get(i));
-			}
+		int n = actual.size();
+		double[] values = n <= candidateValues.length ? candidateValues : new double[n];
+		int[] order = n <= candidateOrder.length ? candidateOrder : new int[n];
+		for(int i=0;i<n;i++)
+			values[i] = actual.get(i).getAttractivePot() - actual.get(i).lastVisited();
+		return actual.get(drawByRank(values, order, n));
+	}
+
+	/**
+	 * Chooses one of n candidate moves at random. When the repulsive potential is enabled
+	 * the candidates are ranked by decreasing potential (attractive minus repulsive) and the i-th one
+	 * is chosen with probability proportional to World.getRankWeight(i), otherwise they are
+	 * equally likely. A single random number is drawn.
+	 * @param values the potential of each candidate.
+	 * @param order a buffer at least n long, where the candidates are ranked.
+	 * @param n the number of candidates.
+	 * @return the position of the chosen candidate, from 0 to n-1.
+	 */
+	private int drawByRank(double[] values, int[] order, int n) {
+		if(!this.world.isRepulseEnable())
+			return random.nextInt(n);
+
+		//ordino per potenziale decrescente (insertion sort stabile, al piu' 8 celle)
+		for(int i=0;i<n;i++){
+			double v = values[i];
+			int j = i;
+			for(;j>0 && values[order[j-1]] < v;j--)
+				order[j] = order[j-1];
+			order[j] = i;
 		}
-		else {
-			sorted = toSort;
+		//pesco in proporzione al peso del rango
+		int total = 0;
+		for(int i=0;i<n;i++)
+			total += this.world.getRankWeight(i);
+		int pick = random.nextInt(total);
+		for(int i=0;i<n-1;i++){
+			pick -= this.world.getRankWeight(i);
+			if(pick < 0)
+				return order[i];
 		}
-
-		int selectable = sorted.size() - 1;
-		int nextMove = 0 + (int)(Math.random() * ((selectable - 0) + 1));
-		return sorted.get(nextMove).myself;
-	}	
+		return order[n-1];
+	}
 
 	//scelgo la nuova direzione in cui muovermi. 3 opzioni disponibili, per evitare di rompere la formazione
 	public Cell calculateNewDir(int dir_x,int dir_y){
 		int myRow = this.position.getRow();
 		int myCol = this.position.getCol();
-		List<Cell> accessible = new ArrayList<Cell>();
-		Cell uno = null;
-		Cell due = null;
-		Cell tre = null;
-		//
-		if(dir_x > 0 && dir_y > 0) {
-			//diagonale su sx
-			if(this.world.isValid(myRow + 1, myCol+1)) {
-				uno = this.world.getCell(myRow + 1, myCol+1);
-			}
-			if(this.world.isValid(myRow + 1, myCol)){
-				due = this.world.getCell(myRow + 1, myCol);
-			}
-			if(this.world.isValid(myRow, myCol+1)){
-				tre = this.world.getCell(myRow, myCol+1);
-			}
-		}	
-		else if(dir_x == 0 && dir_y > 0) {
-			//sx
-			if(this.world.isValid(myRow, myCol+1))
-				uno = this.world.getCell(myRow, myCol+1);
-			if(this.world.isValid(myRow + 1, myCol+1))
-				due = this.world.getCell(myRow + 1, myCol+1);
-			if(this.world.isValid(myRow - 1, myCol+1))
-				tre = this.world.getCell(myRow - 1, myCol+1);
-		}
-		else if(dir_x > 0 && dir_y == 0) {
-			//su
-			if(this.world.isValid(myRow + 1, myCol))
-				uno = this.world.getCell(myRow + 1, myCol);
-			if(this.world.isValid(myRow + 1, myCol+1))
-				due = this.world.getCell(myRow + 1, myCol+1);
-			if(this.world.isValid(myRow + 1, myCol-1))
-				tre = this.world.getCell(myRow + 1, myCol-1);
-		}
-		else if(dir_x < 0 && dir_y < 0) {
-			//diag giu dx//da 
-			if(this.world.isValid(myRow -1, myCol-1))
-				uno = this.world.getCell(myRow - 1, myCol - 1);
-			if(this.world.isValid(myRow-1, myCol))
-				due = this.world.getCell(myRow - 1, myCol);
-			if(this.world.isValid(myRow, myCol-1))
-				tre = this.world.getCell(myRow, myCol - 1);
-		}
-		else if(dir_x == 0 && dir_y < 0) {
-			//dx
-			if(this.world.isValid(myRow, myCol-1))
-				uno = this.world.getCell(myRow, myCol-1);
-			if(this.world.isValid(myRow+1, myCol-1))
-				due = this.world.getCell(myRow + 1, myCol - 1);
-			if(this.world.isValid(myRow-1, myCol-1))
-				tre = this.world.getCell(myRow - 1, myCol -1);
+		//le tre celle davanti nella direzione (vedi Neighbourhood), dentro la griglia e senza altri agenti sopra
+		int accessible = this.world.freeCellsAhead(myRow, myCol, dir_x, dir_y, candidates);
+		//se ce n'e' almeno una, scelgo random, altrimento escapeMove perchè sono vicino ad un muro
+		escaped = accessible == 0;
+		if(accessible > 0) {
+			for(int i=0;i<accessible;i++)
+				candidateValues[i] = this.world.potentialAt(candidates[i]);
+			return this.world.cellAt(candidates[drawByRank(candidateValues, candidateOrder, accessible)]);
 		}
-		else if(dir_x < 0 && dir_y == 0) {
-			//giu
-			if(this.world.isValid(myRow-1, myCol))
-				uno = this.world.getCell(myRow - 1, myCol);
-			if(this.world.isValid(myRow-1, myCol-1))
-				due = this.world.getCell(myRow - 1, myCol - 1);
-			if(this.world.isValid(myRow-1, myCol+1))
-				tre = this.world.getCell(myRow - 1, myCol +1);
-		}
-		else if(dir_x > 0 && dir_y < 0) {
-			//diag su dx
-			if(this.world.isValid(myRow+1, myCol-1))
-				uno = this.world.getCell(myRow + 1, myCol - 1);
-			if(this.world.isValid(myRow+1, myCol))	
-				due = this.world.getCell(myRow + 1, myCol);
-			if(this.world.isValid(myRow, myCol-1))
-				tre = this.world.getCell(myRow, myCol-1);
-		}
-		else if(dir_x == 0 && dir_y == 0) {
-			//all'inizio,vai su
-			if(this.world.isValid(myRow, myCol+1))
-				uno = this.world.getCell(myRow, myCol+1);
-			if(this.world.isValid(myRow+1, myCol+1))
-				due = this.world.getCell(myRow + 1, myCol+1);
-			if(this.world.isValid(myRow-1, myCol+1))
-				tre = this.world.getCell(myRow - 1, myCol+1);
-		}
-		else {
-			//diag giu sx
-			if(this.world.isValid(myRow, myCol+1)) {
-				uno = this.world.getCell(myRow, myCol+1);
-			}
-			if(this.world.isValid(myRow - 1, myCol)) {
-				due = this.world.getCell(myRow - 1, myCol);
-			}
-			if(this.world.isValid(myRow - 1, myCol+1)) {
-				tre = this.world.getCell(myRow - 1, myCol+1);
-			}
-		}
-		//controllo che non siano null, ne ci siano altri agenti sopra
-		Cell whereToMove = null;
-		if(uno != null){
-			if((uno.getAgent() == -1)) {			
-				accessible.add(uno);
-			}
-		}
-		if(due != null) {
-			if(due.getAgent() == -1) {
-				accessible.add(due);
-			}
-		}
-		if(tre != null) {
-		    if(tre.getAgent() == -1) {
-				accessible.add(tre);
-			}
-		}
-		//se l'array è pieno, scelgo random, altrimento escapeMove perchè sono vicino ad un muro
-		if(!accessible.isEmpty()) {
-			whereToMove = chooseByProbability(accessible);
-		}
-		else {
-			whereToMove = escapeMove(myRow,myCol);
-		}
-		return whereToMove;
+		return escapeMove(myRow,myCol);
 	}
 
 
 	
 	public void assignTasks(List<Agent> agents){
+		DecisionEvent event = new DecisionEvent();
+		event.begin();
 		//se sono su un erba, la elimino
 		if(this.position.isWeed()) {
 			this.currentAction = Action.spray;
 			this.currentTask = this.position.getTask();
+			commit(event, this.position, -1);
+			return;
+		}
+		//se ho vinto un'asta vado dritto verso l'erba, finche' c'e'
+		if(this.contract != null && this.contract.getCell().isWeed()) {
+			Cell target = this.contract.getCell();
+			int toRow = Integer.signum(target.getRow() - this.position.getRow());
+			int toCol = Integer.signum(target.getCol() - this.position.getCol());
+			int row = this.position.getRow() + toRow;
+			int col = this.position.getCol() + toCol;
+			Cell toMove = this.world.isOccupied(row, col) ? calculateNewDir(toRow, toCol) : this.world.getCell(row, col);
+			this.currentTask = toMove.getTask();
+			this.currentAction = Action.moveToLocation;
+			previous_old_position = old_position;
+			old_position = position;
+			commit(event, toMove, -1);
 			return;
 		}
 		//devo scegliere un leader e seguirlo
-		List<Agent> others = world.getAllAgents();
-		List<Agent> flock_agent = new ArrayList<Agent>();
 		//calcolo la direzione in cui sto andando
 		int direction_x = 0;
 		int direction_y = 0;
@@ -376,40 +367,47 @@ public class Agent implements Serializable{
 			direction_y = 0;
 		}
 
-		//flock
-		Agent near = null;
-		double near_dis = 1000;
-		for(int i = 0; i < others.size();i++) {
-			if(others.get(i).getId() == this.id)
+		//flock: cerco solo tra gli agenti nelle vicinanze
+		int myRow = this.position.getRow();
+		int myCol = this.position.getCol();
+		int found = world.getAgentsNear(myRow, myCol, FLOCK_RADIUS, mates);
+		if(found > mates.length) {
+			mates = new int[found * 2];
+			found = world.getAgentsNear(myRow, myCol, FLOCK_RADIUS, mates);
+		}
+		int direction_2 = direction_x*direction_x + direction_y*direction_y;
+		int near = -1;
+		int near_dis = Integer.MAX_VALUE;
+		for(int i = 0; i < found; i++) {
+			int other = mates[i];
+			if(other == this.id)
 				continue;
-			double distance = Math.sqrt(Math.pow(others.get(i).position.getRow() - this.position.getRow(),2) + Math.pow(others.get(i).position.getCol() - this.position.getCol(),2));
-			//se sono nella vicinanze li setto come compagni di flock
-			if(distance <= 4) {
-				flock_agent.add(others.get(i));
-				int distance_x = others.get(i).position.getRow() - this.position.getRow();
-				int distance_y = others.get(i).position.getCol() - this.position.getCol();
-				double cos_angle = distance_x*direction_x + distance_y*direction_y;
-				cos_angle = cos_angle/(Math.sqrt(Math.pow(distance_x,2) + Math.pow(distance_y,2))*Math.sqrt(Math.pow(direction_x,2) + Math.pow(direction_y,2)));
-				
-				if(Math.toDegrees(Math.acos(cos_angle)) <= 75 && Math.toDegrees(Math.acos(cos_angle)) >= 0) {
-					if(distance < near_dis) {
-						near = others.get(i);
-						near_dis = distance;
-						near_x = distance_x;
-						near_y = distance_y;
-					}
-				}
-			}
-			else {
+			Cell otherPosition = world.getAgentPosition(other);
+			int distance_x = otherPosition.getRow() - myRow;
+			int distance_y = otherPosition.getCol() - myCol;
+			int distance_2 = distance_x*distance_x + distance_y*distance_y;
+			//il leader deve stare nel cono di 75 gradi davanti a me: cos >= cos(75) senza acos ne' sqrt
+			int dot = distance_x*direction_x + distance_y*direction_y;
+			if(distance_2 == 0 || direction_2 == 0 || dot < 0)
+				continue;
+			if((double)dot*dot < FLOCK_CONE_COS2*distance_2*direction_2)
 				continue;
+			//a parita' di distanza vince l'id piu' basso, come scorrendo la lista degli agenti
+			if(distance_2 < near_dis || (distance_2 == near_dis && other < near)) {
+				near = other;
+				near_dis = distance_2;
+				near_x = distance_x;
+				near_y = distance_y;
 			}
 		}
 		//se sono in formazione e dietro a qualcuno, lo seguo. (Posso sempre muovermi verso di lui, scegliendo fra 3 direzioni)
-		if(near != null && this.world.isFlockEnable()) {
+		if(near != -1 && this.world.isFlockEnable()) {
 			Cell toMove = calculateNewDir(near_x,near_y);
 			this.currentTask = toMove.getTask();
 			this.currentAction = Action.moveToLocation;
+			previous_old_position = old_position;
 			old_position = position;
+			commit(event, toMove, near);
 		}
 		//altrimenti mi muovo sempre verso 3 direzioni(in base alla mia attuale), scegliendo randomicamente 
 		//Solo 3 per evitare di rompere il flock
@@ -417,27 +415,142 @@ public class Agent implements Serializable{
 			Cell toMove = calculateNewDir(direction_x,direction_y);
 			this.currentTask = toMove.getTask();
 			this.currentAction = Action.moveToLocation;
+			previous_old_position = old_position;
 			old_position = position;
+			commit(event, toMove, -1);
 		}
 	}
+
+	/**
+	 * Emits the event of a decision, if it is being recorded.
+	 * @param event the event, begun when the decision started.
+	 * @param chosen the cell chosen.
+	 * @param leader the id of the flock leader followed, -1 if none.
+	 */
+	private void commit(DecisionEvent event, Cell chosen, int leader){
+		if(!event.shouldCommit())
+			return;
+		event.agent = this.id;
+		event.action = this.currentAction.name();
+		event.row = chosen.getRow();
+		event.col = chosen.getCol();
+		event.leaderFound = leader != -1;
+		event.leader = leader;
+		event.escape = this.currentAction == Action.moveToLocation && escaped;
+		event.commit();
+	}
+
+	/**
+	 * Called by the simulator, in synchronous mode, when the move decided by this agent
+	 * conflicts with the move of another agent and is not executed: the agent stays in
+	 * its cell, keeps its heading and decides again at the next round.
+	 */
+	void rejectMove(){
+		this.old_position = this.previous_old_position;
+		this.currentTask = null;
+	}
 	
 	/** 
-	 * CNP - implement your own logic (e.g. for CNP the agent is the manager of task)
+	 * CNP - the agent is the manager of the task.
 	 * 
-	 * The simulator asks the agent to allocate the pending tasks.
-	 * The pending tasks are either the list of pending tasks available in the current class
-	 * or the task still available in the world (this depend to your implementation).
-	 * The tasks are immediately assigned according to the specification of your exercise.
-	 * The agent list is provided by the simulator.
+	 * The task is announced to the given agents, which answer with a Bid; when they are more
+	 * than PARALLEL_BIDS, the bids are computed in parallel over the fork-join pool. The task
+	 * is awarded to the proposal of lowest cost, ties going to the lowest id, and the award is
+	 * confirmed by acceptTask: if the winner refuses, the next proposal is tried.
+	 * Only the agents near the task are given (see announce), so the cost of an auction
+	 * grows with the agents around the task, not with the swarm.
 	 *
-	 * @param agents the agents list.
+	 * @param agents the agents the task is announced to.
+	 * @param task the task.
 	 */
 	public void assignTasks(List<Agent>agents, Task task){
-		System.out.print("TODO: you should find a way to assign a new task\n");
-		for(Agent a : agents){
-			a.bidForTask(task);
-			//continue
-		}	
+		int n = agents.size();
+		Bid[] bids = new Bid[n];
+		if(n > PARALLEL_BIDS)
+			ForkJoinPool.commonPool().invoke(new Bidding(agents, task, bids, 0, n));
+		else
+			for(int i = 0; i < n; i++)
+				bids[i] = agents.get(i).bidForTask(task);
+		//tengo solo le proposte, dalla piu' economica
+		int proposals = 0;
+		for(int i = 0; i < n; i++)
+			if(bids[i].isPropose)
+				bids[proposals++] = bids[i];
+		Arrays.sort(bids, 0, proposals, Bid.BY_COST);
+		for(int i = 0; i < proposals; i++)
+			if(bids[i].bidder.acceptTask(task))
+				return;
+	}
+
+	/**
+	 * Computes the bids of a range of agents, splitting the range over the fork-join pool.
+	 */
+	private static class Bidding extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		private final List<Agent> agents;
+		private final Task task;
+		private final Bid[] bids;
+		private final int from;
+		private final int to;
+
+		Bidding(List<Agent> agents, Task task, Bid[] bids, int from, int to){
+			this.agents = agents;
+			this.task = task;
+			this.bids = bids;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= PARALLEL_BIDS){
+				for(int i = from; i < to; i++)
+					bids[i] = agents.get(i).bidForTask(task);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Bidding(agents, task, bids, from, mid), new Bidding(agents, task, bids, mid, to));
+		}
+	}
+
+	/**
+	 * Closes the contract of this agent once its weed has been sprayed, by the agent or by
+	 * another one, and announces the weeds seen around the agent that nobody is standing
+	 * on and that have not been awarded yet.
+	 * Called after every action when the auctions are enabled (see World.setAuctionRadius).
+	 */
+	private void contractNet(){
+		if(this.contract != null && !this.contract.getCell().isWeed()){
+			this.world.release(this.contract);
+			this.contract = null;
+		}
+		int found = this.world.weedsAround(this.position.getRow(), this.position.getCol(), sensed);
+		for(int i = 0; i < found; i++){
+			Task task = this.world.cellAt(sensed[i]).getTask();
+			if(this.world.getContractor(task) == 0)
+				announce(task);
+		}
+	}
+
+	/**
+	 * Announces a task to the agents within the auction radius from its cell,
+	 * found through the spatial index of the world, and auctions it among them.
+	 */
+	private void announce(Task task){
+		int radius = this.world.getAuctionRadius();
+		Cell cell = task.getCell();
+		int found = this.world.getAgentsNear(cell.getRow(), cell.getCol(), radius, bidderIds);
+		if(found > bidderIds.length){
+			bidderIds = new int[found * 2];
+			found = this.world.getAgentsNear(cell.getRow(), cell.getCol(), radius, bidderIds);
+		}
+		//l'indice non li restituisce in ordine: li ordino per avere aste riproducibili
+		Arrays.sort(bidderIds, 0, found);
+		List<Agent> all = this.world.getAllAgents();
+		bidders.clear();
+		for(int i = 0; i < found; i++)
+			bidders.add(all.get(bidderIds[i] - 1));
+		assignTasks(bidders, task);
 	}
 
 	/**
@@ -453,24 +566,12 @@ public class Agent implements Serializable{
 		this.position.setLastVisited();
 		this.currentTask = nextTask;
 		if(this.position.isWeed() && this.world.isAttractEnable()) {
-			int this_row = this.position.getRow();
-			int this_col = this.position.getCol();
-			for(int row=-5;row<5;row++){
-				for(int col=-5;col<5;col++){
-					if(this.world.isValid(this_row + row,this_col + col)) {
-						if(col == 0 && row == 0)
-							this.world.getCell(this_row + row,this_col + col).setAttractivePot(3.0f);
-						//il potenziale attrattivo, decresce in base alla distanza dall'epicentro
-						else {
-							double val = 3.0f - 0.5f*Math.sqrt((row)*(row) + (col)*(col));
-							this.world.getCell(this_row + row,this_col + col).setAttractivePot(val);
-						}
-					}
-
-				}
-			}
-			
+			//il potenziale attrattivo decresce in base alla distanza dall'epicentro (vedi Stencil)
+			this.world.stampAttract(this.position);
 		}
+		//Contract Net: chiudo il contratto finito e metto all'asta le erbe che vedo
+		if(this.world.getAuctionRadius() > 0)
+			contractNet();
 		
 		//Some tips:
 		// If the agent is in the same cell as nextPosition maybe it needs to 
@@ -485,27 +586,32 @@ public class Agent implements Serializable{
 	/** 
 	 * 
 	 * The requests for Bids are issued by the agent.
-	 * In the first implementation an agent can only bid if it has no current task.
+	 * An agent only proposes if it has no contract yet; its cost is the number of moves
+	 * needed to reach the cell of the task, moving diagonally as well.
+	 * The bid only reads the state of the agent, so bids can be computed in parallel.
 	 * @param task the task which the request is issued for.
 	 * @return a bid for the given task.
 	 */
 	public Bid bidForTask(Task task){
-		System.out.print("TODO: are you dealing with auctions and CNP?\n");
-		// TODO Complete
-		return null;
+		Cell cell = task.getCell();
+		int cost = Math.max(Math.abs(cell.getRow() - this.position.getRow()), Math.abs(cell.getCol() - this.position.getCol()));
+		return new Bid(this.contract == null, task, cost, this);
 	}
 
 	/**
 	 *  
 	 * The acceptance requests are issued by the agent.
-	 * In the first implementation an agent can only accept if it has no current task.
+	 * An agent only accepts if it has no contract yet: the task becomes its contract
+	 * and the world records it as the contractor of the task.
 	 * @param task the task which the request is issued for.
 	 * @return true if the task is accepted.
 	 */
 	public boolean acceptTask(Task task){
-		System.out.print("TODO: how am I supposed to accept the task?\n");
-		// TODO Complete
-		return false;
+		if(this.contract != null)
+			return false;
+		this.contract = task;
+		this.world.award(task, this.id);
+		return true;
 	}
 
 
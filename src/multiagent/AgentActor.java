@@ -0,0 +1,106 @@
+package multiagent;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class runs an Agent as an actor: the agent only reacts to the messages
+ * in its bounded mailbox, one at a time, on a thread borrowed from an Executor.
+ * <p> The actor does not own a thread: it is scheduled on the executor when a message
+ * arrives and it is idle, and it gives the thread back as soon as its mailbox is empty,
+ * so any number of actors can share a handful of threads.
+ */
+class AgentActor implements Runnable{
+
+	/**
+	 * The messages an actor understands.
+	 * <p> DECIDE: the tick has started, decide the next action and submit it to the arbiter.
+	 */
+	static enum Message{
+		DECIDE
+	}
+
+	/**Messages handled at most in one run before giving the thread back to the other actors.*/
+	private static final int BATCH = 16;
+
+	/**the agent*/
+	final Agent agent;
+
+	/**the arbiter to which the decided actions are submitted*/
+	private final ActorSim arbiter;
+
+	/**where the actor runs*/
+	private final Executor executor;
+
+	/**pending messages*/
+	private final BlockingQueue<Message> mailbox;
+
+	/**true while the actor is scheduled on the executor or running*/
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/**
+	 * Constructor for this class.
+	 * @param agent the agent run by this actor.
+	 * @param arbiter the arbiter to which the decided actions are submitted.
+	 * @param executor where the actor runs.
+	 * @param capacity the capacity of the mailbox.
+	 */
+	AgentActor(Agent agent, ActorSim arbiter, Executor executor, int capacity){
+		this.agent = agent;
+		this.arbiter = arbiter;
+		this.executor = executor;
+		this.mailbox = new ArrayBlockingQueue<Message>(capacity);
+	}
+
+	/**
+	 * Delivers a message to this actor, scheduling it if idle.
+	 * @param message the message.
+	 * @throws IllegalStateException if the mailbox is full.
+	 */
+	void tell(Message message){
+		if(!mailbox.offer(message))
+			throw new IllegalStateException("Mailbox of agent " + agent.getId() + " is full");
+		schedule();
+	}
+
+	private void schedule(){
+		if(scheduled.compareAndSet(false, true))
+			executor.execute(this);
+	}
+
+	/**
+	 * Handles the pending messages, then gives the thread back.
+	 */
+	@Override
+	public void run(){
+		try{
+			for(int i = 0; i < BATCH; i++){
+				Message message = mailbox.poll();
+				if(message == null)
+					break;
+				receive(message);
+			}
+		}finally{
+			scheduled.set(false);
+		}
+		//a message may have arrived after the last poll
+		if(!mailbox.isEmpty())
+			schedule();
+	}
+
+	private void receive(Message message){
+		switch(message){
+			case DECIDE:
+				try{
+					arbiter.decide(agent);
+				}catch(RuntimeException e){
+					arbiter.fail(e);
+				}finally{
+					arbiter.submit(this);
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown message: " + message);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package multiagent;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class implements a full simulator.
@@ -34,13 +35,59 @@ public class AgentSim implements Serializable{
 	private int totalMoveToLocation;
 	private int totalNextTask;
 
+	/**Number of agent steps performed, a round counting as one step per agent.*/
+	private long stepsDone;
+
+	/**Number of weeds in the world when the agents were placed, plus those added since.*/
+	private int weedsSeeded;
+
+	/**Seed of the simulation and master stream, from which the streams of the world and of the agents are split*/
+	private long seed;
+	private RandomStream random;
+
+	/**If true, step() advances the simulation by synchronous rounds (see doOneRound()).*/
+	private boolean synchronous;
+
+	/**Agents decided by a single task when computing the next actions of a round in parallel.*/
+	private static final int DECIDE_BATCH = 32;
+
+	/**
+	 * Scratch buffers of doOneRound(), indexed by position in the agents list:
+	 * source and target cell of each agent, rejected moves and agents sorted by source and by target cell.
+	 */
+	private transient int[] roundFrom;
+	private transient int[] roundTo;
+	private transient boolean[] roundRejected;
+	private transient long[] bySource;
+	private transient long[] byTarget;
+
+	/**Latencies of the phases of the steps, null while timing is disabled (see setTimingEnabled).*/
+	private transient volatile PhaseTimings timings;
+	/**Latencies recorded so far, kept while timing is disabled.*/
+	private transient PhaseTimings timingData;
+
+	/**Log of the trajectory, null if not recording (see setRecorder).*/
+	private transient TrajectoryRecorder recorder;
+
 	/**
 	 * Constructs a simulator creating a new world with the specified characteristics.
 	 * @param height the height of the world
 	 * @param width the width of the world
 	 */
 	public AgentSim(int height, int width){
-		world=new World(height,width);
+		this(height, width, System.nanoTime());
+	}
+
+	/**
+	 * Constructs a simulator creating a new world with the specified characteristics.
+	 * @param height the height of the world
+	 * @param width the width of the world
+	 * @param seed the seed from which all the random numbers of the simulation are drawn
+	 */
+	public AgentSim(int height, int width, long seed){
+		this.seed = seed;
+		this.random = new RandomStream(seed);
+		world=new World(height,width,random.split());
 	}
 
 	/**
@@ -51,14 +98,132 @@ public class AgentSim implements Serializable{
 	 * @param ags the number of agents
 	 */
 	public AgentSim(int height, int width, int weed, int ags){
-		world = new World(height,width);
+		this(height, width, weed, ags, System.nanoTime());
+	}
+
+	/**
+	 * Constructs a simulator creating a new world with the specified characteristics.
+	 * Two simulators built with the same arguments evolve in the same way.
+	 * @param height the height of the world
+	 * @param width the width of the world
+	 * @param weed the number of inaccessible cells
+	 * @param ags the number of agents
+	 * @param seed the seed from which all the random numbers of the simulation are drawn
+	 */
+	public AgentSim(int height, int width, int weed, int ags, long seed){
+		this(height, width, seed);
+		setUp(weed, ags);
+	}
+
+	/**
+	 * Constructs a simulator whose world is kept off-heap in the given file (see World).
+	 * If the file already holds a field of the given size, the simulation goes on over that field,
+	 * with new agents, and weed is ignored.
+	 * @param height the height of the world
+	 * @param width the width of the world
+	 * @param weed the number of inaccessible cells
+	 * @param ags the number of agents
+	 * @param seed the seed from which all the random numbers of the simulation are drawn
+	 * @param field the file holding the cells of the world
+	 * @throws IOException if the file cannot be mapped or holds a field of a different size
+	 */
+	public AgentSim(int height, int width, int weed, int ags, long seed, File field) throws IOException{
+		this.seed = seed;
+		this.random = new RandomStream(seed);
+		world=new World(height,width,random.split(),field);
+		setUp(weed, ags);
+	}
+
+	/**
+	 * Constructs a simulator restoring the simulation saved by storeWorld in the given file,
+	 * which goes on exactly as the saved one would have. The world is kept on the heap.
+	 * @param fileName the name of the file holding the snapshot
+	 * @throws IOException if the file cannot be read or does not hold a snapshot
+	 */
+	public AgentSim(String fileName) throws IOException{
+		try(Snapshot in = Snapshot.open(new File(fileName))){
+			seed = in.getLong();
+			random = in.getRandom();
+			currentAgent = in.getInt();
+			inactiveSteps = in.getInt();
+			totalNoOps = in.getInt();
+			totalMoveToLocation = in.getInt();
+			totalNextTask = in.getInt();
+			stepsDone = in.getLong();
+			weedsSeeded = in.getInt();
+			synchronous = in.getBoolean();
+			world = new World(in);
+			int n = in.getInt();
+			agents = new ArrayList<Agent>(n);
+			for(int i = 0; i < n; i++)
+				agents.add(new Agent(in, world));
+			world.addAgents(agents);
+		}
+	}
+
+	/**
+	 * Constructs a simulator over the field saved by storeWorld in the given file, with new agents,
+	 * so that the same field can be reused across experiments: weeds, tasks and potentials are
+	 * those of the snapshot, while agents, statistics and random numbers start anew.
+	 * @param fileName the name of the file holding the snapshot
+	 * @param ags the number of agents
+	 * @param seed the seed from which the random numbers of the agents are drawn
+	 * @throws IOException if the file cannot be read or does not hold a snapshot
+	 */
+	public AgentSim(String fileName, int ags, long seed) throws IOException{
+		this(fileName);
+		//nuovo esperimento sullo stesso campo: azzero statistiche e stream, creo nuovi agenti
+		this.seed = seed;
+		this.random = new RandomStream(seed);
+		currentAgent = 0;
+		inactiveSteps = 0;
+		totalNoOps = 0;
+		totalMoveToLocation = 0;
+		totalNextTask = 0;
+		stepsDone = 0;
+		weedsSeeded = world.getWeedRemained();
+		initAgentsRandom(ags);
+	}
+
+	/**
+	 * Saves the complete state of the simulation in the given file, in a compact binary format
+	 * written in bulk: cells, potentials, weeds and tasks of the world, position, heading and action
+	 * of the agents, statistics and the state of every random stream.
+	 * The simulation can be restored with AgentSim(String), also when the world is kept in a mapped file.
+	 * Must not be called while a step is in progress.
+	 * @param fileName the name of the file, overwritten if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void storeWorld(String fileName) throws IOException{
+		try(Snapshot out = Snapshot.create(new File(fileName))){
+			out.putLong(seed);
+			out.putRandom(random);
+			out.putInt(currentAgent);
+			out.putInt(inactiveSteps);
+			out.putInt(totalNoOps);
+			out.putInt(totalMoveToLocation);
+			out.putInt(totalNextTask);
+			out.putLong(stepsDone);
+			out.putInt(weedsSeeded);
+			out.putBoolean(synchronous);
+			world.writeTo(out);
+			out.putInt(agents.size());
+			for(Agent a : agents)
+				a.writeTo(out);
+		}
+	}
+
+	private void setUp(int weed, int ags){
 		//per attivare/disattivare velocemente i potenziali e il flock
 		world.useAttract(true);
 		world.useRepulse(true);
 		world.useFlock(true);
 		//
-		addWeedCells(weed);
-		initTasks();
+		if(!world.isReopened()){
+			addWeedCells(weed);
+			initTasks();
+		}
+		weedsSeeded = world.getWeedRemained();
 		initAgentsRandom(ags);
 	}
 
@@ -67,23 +232,27 @@ public class AgentSim implements Serializable{
 	 * @param weed the number of weed cells that we want to add
 	 */
 	public void addWeedCells(int weed){
+		int before = world.getWeedRemained();
 		world.addWeedCells(weed);
+		weedsSeeded += world.getWeedRemained() - before;
 	}
 
 	/**Positions agents in the world in random positions.*/
 	public void initAgentsRandom(int numAgents){
-		agents=new LinkedList<Agent>();
+		agents=new ArrayList<Agent>(numAgents);
 		for(int i=1;i<=numAgents;i++){
 			Cell cell;
 			//li metto all'inizio in formazione
 			if(i <= 3) {
 				cell = world.getCell(0,0+(i-1));
 			}
+			//gli altri da destra verso sinistra, andando a capo se non bastano le colonne
 			else {
-				cell = world.getCell(0,(int)(world.getWidth()) - (i -3));
+				int k = i - 4;
+				cell = world.getCell((k / world.getWidth()) % world.getHeight(),(int)(world.getWidth()) - 1 - k % world.getWidth());
 			}
 			//Cell cell = world.getCell((int)(world.getHeight()*Math.random()), (int)(world.getWidth()*Math.random()));
-			Agent a = new Agent(i,cell, this.world);
+			Agent a = new Agent(i,cell, this.world, random.split());
 			cell.setLastVisited();
 
 			agents.add(a);
@@ -109,7 +278,8 @@ public class AgentSim implements Serializable{
 		//sia Coverage, che Weed removal
 		this.world.setUpForCoverage();
 		this.world.setUpForWeed();
-		System.out.print("setting up for coverage\n");
+		if(World.verbose)
+			System.out.print("setting up for coverage\n");
 		return 0;
 	}
 
@@ -127,11 +297,23 @@ public class AgentSim implements Serializable{
 //			e.printStackTrace();
 //		}
 		
-		//retrieve the action from the current agent
+		//retrieve the action from the current agent, execute it and update the state of the agent
 		Agent agent = agents.get(currentAgent);
-		Action act = agent.nextAction();
+		commit(agent, false);
+        
+        //assing and validate the next task
+        decide(agent);
+        
+        currentAgent=(currentAgent+1)%agents.size();
 
-		//managing statistics and inactive steps count
+        return isOver();
+	}
+
+	/**
+	 * Updates the statistics and the inactive steps count with the action of one agent step.
+	 */
+	private void count(Action act){
+		stepsDone++;
 		if(act == Action.noOp){
 			inactiveSteps++;
 			totalNoOps++;
@@ -143,43 +325,354 @@ public class AgentSim implements Serializable{
 		    else
 		    	this.totalNextTask++;
 		}
-		
-		//executing the action for the agent and return the new task that has to be executed
-		//e.g. move to a task already executed and return the new task computed according to the wanted action
-		Task nextTask = world.executeAction(agent.getId(),agent.getCurrentTask(),act);
-		
-		//updates the state of the agents with the new agent position and the next task to be performed
-        agent.updateState(world.getAgentPosition(agent.getId()),nextTask);
-        
-        //assing and validate the next task
-        agent.assignTasks(agents);
-        
-        currentAgent=(currentAgent+1)%agents.size();
+	}
+
+	/**
+	 * Checks the termination conditions.
+	 * @return true if the simulation is over.
+	 */
+	boolean isOver(){
+		PhaseTimings t = timings;
+		long time = t == null ? 0 : System.nanoTime();
+		boolean over = checkTermination();
+		if(t != null)
+			t.record(PhaseTimings.TERMINATION_CHECK, time);
+		return over;
+	}
 
+	/**
+	 * The simulation is over when 2 weeds or fewer are left (none, if the world was seeded
+	 * with 2 weeds or fewer), when no task is open, or when the last 2*agents steps were all noOps.
+	 * A synchronous round can spray several weeds at once, skipping past 2.
+	 */
+	private boolean checkTermination(){
         //stoppo quando mancano tot erbe da eliminare
-        if(this.world.getWeedRemained() == 2)
+        int left = weedsSeeded > 2 ? 2 : 0;
+        if(this.world.getWeedRemained() <= left)
         	return true;
 
-        if(inactiveSteps>=2*agents.size() || this.world.getUncompletedTask().isEmpty())
+        if(inactiveSteps>=2*agents.size() || this.world.getOpenTaskCount() == 0)
             return true;
         else
             return false;
 	}
 
+	/**
+	 * Sets how step() advances the simulation: one agent at a time (the default)
+	 * or by synchronous rounds of all the agents (see doOneRound()).
+	 * @param synchronous true to advance by synchronous rounds.
+	 */
+	public void useSynchronousRounds(boolean synchronous){
+		this.synchronous = synchronous;
+	}
+
+	/**
+	 * Returns true if step() advances the simulation by synchronous rounds.
+	 * @return true if the simulation advances by synchronous rounds.
+	 */
+	public boolean isSynchronous(){
+		return synchronous;
+	}
+
+	/**
+	 * Advances the simulation and decays the potentials accordingly: one step of one agent,
+	 * or one round of all the agents in synchronous mode, which decays the potentials as
+	 * many steps as there are agents.
+	 * @return true if the simulation is over.
+	 */
+	public boolean step(){
+		StepEvent event = new StepEvent();
+		event.begin();
+		boolean stop;
+		int steps;
+		if(synchronous){
+			stop = doOneRound();
+			steps = agents.size();
+		}
+		else{
+			stop = doOneStep();
+			steps = 1;
+		}
+		decayPotentials(steps);
+		commit(event, steps, stop);
+		return stop;
+	}
+
+	/**
+	 * Emits the event of a step of the simulation, if it is being recorded.
+	 * @param event the event, begun when the step started.
+	 * @param steps the number of agent steps performed.
+	 * @param over true if the simulation is over.
+	 */
+	void commit(StepEvent event, int steps, boolean over){
+		if(!event.shouldCommit())
+			return;
+		event.agentSteps = steps;
+		event.stepsDone = stepsDone;
+		event.weedsRemaining = world.getWeedRemained();
+		event.openTasks = world.getOpenTaskCount();
+		event.over = over;
+		event.commit();
+	}
+
+	/**
+	 * Decays the potentials of the world as many steps as given.
+	 */
+	void decayPotentials(int steps){
+		PhaseTimings t = timings;
+		long time = t == null ? 0 : System.nanoTime();
+		world.decayPotentials(steps);
+		if(t != null)
+			t.record(PhaseTimings.DECAY, time);
+	}
+
+	/**
+	 * Executes one synchronous round: every agent performs one step.
+	 * <p> The round has two phases. First the actions decided at the previous round are
+	 * committed one agent at a time, by increasing id: moves, sprays and potentials are applied
+	 * to the world and the agents are updated. Moves that conflict are rejected and the agent
+	 * stays where it is: when two agents target the same cell the lowest id wins, two agents
+	 * never swap their cells and no agent enters a cell whose occupant is not leaving it.
+	 * Then every agent decides its next action in parallel over a fork-join pool, reading the
+	 * world without modifying it.
+	 * <p> Each agent draws from its own random stream and conflicts are solved by id, so a round
+	 * gives the same result for a given seed whatever the number of threads.
+	 * @return true if the simulation is over.
+	 */
+	public boolean doOneRound(){
+		int n = agents.size();
+		resolveMoves();
+
+		//commit: azioni eseguite in ordine di id
+		for(int i = 0; i < n; i++)
+			commit(agents.get(i), roundRejected[i]);
+
+		//decisione: ogni agente sceglie la prossima azione in parallelo, il mondo e' solo letto
+		new Decide(0, n).invoke();
+
+		return isOver();
+	}
+
+	/**
+	 * Executes the action decided by an agent, or rejects it, and updates the agent accordingly.
+	 * @param agent the agent.
+	 * @param rejected true if the move of the agent conflicts with another agent and must not be executed.
+	 */
+	void commit(Agent agent, boolean rejected){
+		PhaseTimings t = timings;
+		long time = t == null ? 0 : System.nanoTime();
+		Action act = agent.nextAction();
+		//managing statistics and inactive steps count
+		count(act);
+		if(t != null)
+			time = t.record(PhaseTimings.NEXT_ACTION, time);
+		//executing the action for the agent and return the new task that has to be executed
+		//e.g. move to a task already executed and return the new task computed according to the wanted action
+		Cell from = recorder == null ? null : world.getAgentPosition(agent.getId());
+		Task nextTask = null;
+		if(rejected)
+			agent.rejectMove();
+		else
+			nextTask = world.executeAction(agent.getId(),agent.getCurrentTask(),act);
+		if(recorder != null)
+			record(agent.getId(), act, from);
+		if(t != null)
+			time = t.record(PhaseTimings.execute(act), time);
+		//updates the state of the agents with the new agent position and the next task to be performed
+		agent.updateState(world.getAgentPosition(agent.getId()),nextTask);
+		if(t != null)
+			t.record(PhaseTimings.UPDATE_STATE, time);
+	}
+
+	private void record(int agent, Action act, Cell from){
+		try{
+			recorder.step(agent, act, from, world.getAgentPosition(agent));
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Records the trajectory of the simulation from now on in the given log, or stops recording.
+	 * The log must have been created for this simulator (see TrajectoryRecorder.create) and is not
+	 * closed by the simulator. If the log cannot be written, the next step throws an UncheckedIOException.
+	 * @param recorder the log, null to stop recording.
+	 */
+	public void setRecorder(TrajectoryRecorder recorder){
+		this.recorder = recorder;
+		world.setRecorder(recorder);
+	}
+
+	/**
+	 * Lets an agent decide its next action.
+	 * Safe to call for different agents at once, as long as the world is not modified.
+	 * @param agent the agent.
+	 */
+	void decide(Agent agent){
+		PhaseTimings t = timings;
+		long time = t == null ? 0 : System.nanoTime();
+		agent.assignTasks(agents);
+		if(t != null)
+			t.record(PhaseTimings.ASSIGN_TASKS, time);
+	}
+
+	/**
+	 * Computes the source and the target cell of the action of every agent and marks the moves
+	 * that cannot be executed in roundRejected.
+	 */
+	private void resolveMoves(){
+		int n = agents.size();
+		if(roundFrom == null || roundFrom.length != n){
+			roundFrom = new int[n];
+			roundTo = new int[n];
+			roundRejected = new boolean[n];
+			bySource = new long[n];
+			byTarget = new long[n];
+		}
+		int width = world.getWidth();
+		for(int i = 0; i < n; i++){
+			Agent agent = agents.get(i);
+			Cell from = world.getAgentPosition(agent.getId());
+			roundFrom[i] = from.getRow()*width + from.getCol();
+			roundTo[i] = roundFrom[i];
+			if(agent.nextAction() == Action.moveToLocation && agent.getCurrentTask() != null){
+				Cell to = agent.getCurrentTask().getCell();
+				roundTo[i] = to.getRow()*width + to.getCol();
+			}
+			roundRejected[i] = false;
+			bySource[i] = ((long) roundFrom[i] << 32) | i;
+			byTarget[i] = ((long) roundTo[i] << 32) | i;
+		}
+		Arrays.sort(bySource);
+		Arrays.sort(byTarget);
+
+		//due agenti verso la stessa cella: vince l'id piu' basso (l'indice nella lista)
+		boolean claimed = false;
+		for(int k = 0; k < n; k++){
+			if(k > 0 && (byTarget[k] >>> 32) != (byTarget[k-1] >>> 32))
+				claimed = false;
+			int i = (int) byTarget[k];
+			if(roundTo[i] == roundFrom[i])
+				continue;
+			if(claimed)
+				roundRejected[i] = true;
+			claimed = true;
+		}
+
+		//scambi e celle occupate da chi resta: ripeto finche' non cambia piu' nulla
+		boolean changed = true;
+		while(changed){
+			changed = false;
+			for(int i = 0; i < n; i++){
+				if(roundRejected[i] || roundTo[i] == roundFrom[i])
+					continue;
+				for(int k = firstFrom(roundTo[i]); k < n && (int)(bySource[k] >>> 32) == roundTo[i]; k++){
+					int j = (int) bySource[k];
+					boolean leaving = roundTo[j] != roundFrom[j] && !roundRejected[j];
+					boolean swap = roundTo[j] == roundFrom[i];
+					if(!leaving || swap){
+						roundRejected[i] = true;
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the position in bySource of the first agent whose source cell is the given one.
+	 */
+	private int firstFrom(int cell){
+		int lo = 0;
+		int hi = bySource.length;
+		long key = (long) cell << 32;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(bySource[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Lets the agents in the given range of the agents list decide their next action,
+	 * splitting the range over the fork-join pool.
+	 */
+	private class Decide extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		Decide(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= DECIDE_BATCH){
+				for(int i = from; i < to; i++)
+					decide(agents.get(i));
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Decide(from, mid), new Decide(mid, to));
+		}
+	}
+
+	/**
+	 * Starts or stops timing the phases of the steps (see PhaseTimings).
+	 * Timing costs a few clock reads per step, so it is disabled by default;
+	 * the latencies recorded are kept when it is disabled and enabled again.
+	 * @param enabled true to time the phases of the steps.
+	 */
+	public void setTimingEnabled(boolean enabled){
+		timings = enabled ? getTimings() : null;
+	}
+
+	/**
+	 * Returns true if the phases of the steps are being timed.
+	 * @return true if timing is enabled.
+	 */
+	public boolean isTimingEnabled(){
+		return timings != null;
+	}
+
+	/**Returns the latencies of the phases of the steps recorded so far.*/
+	synchronized PhaseTimings getTimings(){
+		if(timingData == null)
+			timingData = new PhaseTimings();
+		return timingData;
+	}
+
 	//************************************************ Methods to retrieve information about the world and about the simulation ******
 
+	/**
+	 * Returns the seed of the simulation, which allows to replay it.
+	 * @return the seed of the simulation.
+	 */
+	public long getSeed(){
+		return seed;
+	}
+
+	/**
+	 * Returns the number of agent steps performed so far, a round counting as one step per agent.
+	 * @return the number of agent steps performed.
+	 */
+	public long getStepsDone(){
+		return stepsDone;
+	}
+
 	/**
 	 * Returns the number of cells with the given status.
 	 * Visited.
 	 * @return the number of cells with the given status.
 	 */
 	public int countVisitedCells(){
-		int count=0;
-		for(int row=this.world.getHeight()-1;row>=0;row--)
-			for(int col=this.world.getWidth()-1;col>=0;col--)
-				if(this.world.getCell(row,col).isVisited())
-					count++;
-		return count;
+		return world.countCells(Grid.VISITED);
 	}
 	
 	/**
@@ -188,12 +681,7 @@ public class AgentSim implements Serializable{
 	 * @return the number of cells with the given status.
 	 */
 	public int countWeedCells(){
-		int count=0;
-		for(int row=world.getHeight()-1;row>=0;row--)
-			for(int col=world.getWidth()-1;col>=0;col--)
-				if(world.getCell(row,col).isWeed())
-					count++;
-		return count;
+		return world.getWeedRemained();
 	}
 
 	/**
@@ -202,12 +690,7 @@ public class AgentSim implements Serializable{
 	 * @return the number of cells with the given status.
 	 */
 	public int countUnsprayedCells(){
-		int count=0;
-		for(int row=world.getHeight()-1;row>=0;row--)
-			for(int col=world.getWidth()-1;col>=0;col--)
-				if(world.getCell(row,col).isSprayed())
-					count++;
-		return count;
+		return world.countCells(Grid.SPRAYED);
 	}
 	
 	/**
@@ -261,12 +744,7 @@ public class AgentSim implements Serializable{
 	 * @param agId the id of the agent
 	 */
 	public int getVisited(int agId){
-		int count=0;
-		for(int row=world.getHeight()-1;row>=0;row--)
-			for(int col=world.getWidth()-1;col>=0;col--)
-				if(world.getCell(row,col).isVisited() && world.getCell(row,col).getAgent() == agId)
-					count++;
-		return count;
+		return world.countCellsVisitedBy(agId);
 	}
 
 	/**
@@ -0,0 +1,304 @@
+package multiagent;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.management.*;
+
+/**
+ * This class runs many independent simulations without any display.
+ * <p> Every run owns its own AgentSim and is driven step by step (potential decay included)
+ * until the simulation reports its end or the step limit is reached. Runs are spread over
+ * a fixed-size thread pool and, for each of them, a line with the number of steps,
+ * the wall time and the weeds remaining is emitted in CSV format.
+ * <p> The seed of every run is drawn from a master seed and printed with its result,
+ * so that the whole batch, or any single run, can be replayed.
+ * <p> Usage: java multiagent.BatchRunner [--sync|--actors] [--jmx] [--record] [--auction-radius r] [runs] [rows] [columns] [weedCells] [agents] [threads] [maxSteps] [seed] [outFile]
+ * <p> With --sync the simulations advance by synchronous rounds, with --actors the agents
+ * are executed as actors (see ActorSim). With --jmx every run times the phases of its steps
+ * and is published over JMX while it runs, as multiagent:type=AgentSim,name=run-i (see SimulationMonitor).
+ * With --record the trajectory of every run is logged in the file run-i.traj (see TrajectoryRecorder).
+ * With --auction-radius the weeds discovered by an agent are auctioned among the agents within
+ * the given radius (see World.setAuctionRadius).
+ * <p> The progress messages of the worlds are turned off, so that the standard output only
+ * holds the CSV; the summary of the batch goes to the standard error.
+ */
+public class BatchRunner{
+
+	/**
+	 * Outcome of a single run.
+	 */
+	public static class Result{
+		/**Index of the run.*/
+		public final int run;
+		/**Seed of the run.*/
+		public final long seed;
+		/**Number of steps executed, the last one included.*/
+		public final long steps;
+		/**Wall time of the run, in nanoseconds.*/
+		public final long wallNanos;
+		/**Number of weeds still in the field at the end of the run.*/
+		public final int weedsRemaining;
+		/**True if the simulation ended by itself, false if the step limit was reached.*/
+		public final boolean finished;
+
+		public Result(int run, long seed, long steps, long wallNanos, int weedsRemaining, boolean finished){
+			this.run=run;
+			this.seed=seed;
+			this.steps=steps;
+			this.wallNanos=wallNanos;
+			this.weedsRemaining=weedsRemaining;
+			this.finished=finished;
+		}
+
+		/**
+		 * Returns the CSV representation of this result, matching {@link #CSV_HEADER}.
+		 * @return the CSV line for this result.
+		 */
+		public String toCsv(){
+			return run+","+seed+","+steps+","+(wallNanos/1000000.0)+","+weedsRemaining+","+finished;
+		}
+	}
+
+	/**Header of the CSV lines produced by {@link Result#toCsv()}.*/
+	public static final String CSV_HEADER="run,seed,steps,wall_ms,weeds_remaining,finished";
+
+	private final int rows;
+	private final int columns;
+	private final int weedCells;
+	private final int agents;
+	private final long maxSteps;
+	private boolean synchronous;
+	private boolean actors;
+	private boolean jmx;
+	private boolean record;
+	private int auctionRadius;
+
+	/**
+	 * Constructor for this class.
+	 * @param rows the height of the world of every run.
+	 * @param columns the width of the world of every run.
+	 * @param weedCells the number of weed cells of every run.
+	 * @param agents the number of agents of every run.
+	 * @param maxSteps the maximum number of steps a run can execute.
+	 */
+	public BatchRunner(int rows, int columns, int weedCells, int agents, long maxSteps){
+		this.rows=rows;
+		this.columns=columns;
+		this.weedCells=weedCells;
+		this.agents=agents;
+		this.maxSteps=maxSteps;
+	}
+
+	/**
+	 * Sets whether the runs advance by synchronous rounds (see AgentSim.doOneRound()).
+	 * @param synchronous true to advance by synchronous rounds.
+	 */
+	public void useSynchronousRounds(boolean synchronous){
+		this.synchronous=synchronous;
+	}
+
+	/**
+	 * Sets whether the agents of the runs are executed as actors (see ActorSim).
+	 * @param actors true to execute the agents as actors.
+	 */
+	public void useActors(boolean actors){
+		this.actors=actors;
+	}
+
+	/**
+	 * Sets whether the runs time the phases of their steps and are published over JMX while they run
+	 * (see SimulationMonitor).
+	 * @param jmx true to publish the runs over JMX.
+	 */
+	public void useJmx(boolean jmx){
+		this.jmx=jmx;
+	}
+
+	/**
+	 * Sets whether the trajectory of every run is logged in the file run-i.traj, in the working directory.
+	 * @param record true to log the trajectories.
+	 */
+	public void useRecording(boolean record){
+		this.record=record;
+	}
+
+	/**
+	 * Sets the radius of the auctions of the weeds discovered by the agents of every run.
+	 * @param radius the radius, 0 to disable the auctions.
+	 */
+	public void setAuctionRadius(int radius){
+		this.auctionRadius=radius;
+	}
+
+	/**
+	 * Executes a single run in the calling thread.
+	 * @param run the index of the run.
+	 * @param seed the seed of the run.
+	 * @return the outcome of the run.
+	 */
+	public Result runOnce(int run, long seed){
+		long start=System.nanoTime();
+		AgentSim sim=new AgentSim(rows,columns,weedCells,agents,seed);
+		sim.world.setAuctionRadius(auctionRadius);
+		if(!jmx)
+			return drive(run,sim,start);
+		sim.setTimingEnabled(true);
+		ObjectName name;
+		try{
+			name=SimulationMonitor.register(sim,"run-"+run);
+		}catch(JMException e){
+			throw new IllegalStateException("Cannot publish run "+run,e);
+		}
+		try{
+			return drive(run,sim,start);
+		}finally{
+			try{
+				SimulationMonitor.unregister(name);
+			}catch(JMException e){
+				//gia' rimosso
+			}
+		}
+	}
+
+	/**
+	 * Steps the given simulation until it ends or the step limit is reached, logging its trajectory if required.
+	 */
+	private Result drive(int run, AgentSim sim, long start){
+		if(!record)
+			return step(run,sim,start);
+		TrajectoryRecorder recorder;
+		try{
+			recorder=TrajectoryRecorder.create(new File("run-"+run+".traj"),sim);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		sim.setRecorder(recorder);
+		try{
+			return step(run,sim,start);
+		}finally{
+			sim.setRecorder(null);
+			try{
+				recorder.close();
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Steps the given simulation, potential decay included, until it ends or the step limit is reached.
+	 */
+	private Result step(int run, AgentSim sim, long start){
+		sim.useSynchronousRounds(synchronous);
+		boolean stop=false;
+		if(actors){
+			ActorSim actorSim=new ActorSim(sim);
+			while(!stop && sim.getStepsDone()<maxSteps)
+				stop=actorSim.tick();
+		}
+		else{
+			while(!stop && sim.getStepsDone()<maxSteps)
+				stop=sim.step();
+		}
+		return new Result(run,sim.getSeed(),sim.getStepsDone(),System.nanoTime()-start,sim.world.getWeedRemained(),stop);
+	}
+
+	/**
+	 * Executes the given number of runs over a fixed-size thread pool.
+	 * The seeds of the runs are drawn in order from the given master seed.
+	 * The results are handed to the given stream as soon as each run completes.
+	 * @param runs the number of runs.
+	 * @param threads the number of threads of the pool.
+	 * @param seed the master seed of the batch.
+	 * @param out the stream on which the CSV lines are printed, may be null.
+	 * @return the results, ordered by run index.
+	 */
+	public List<Result> runAll(int runs, int threads, long seed, final PrintStream out) throws InterruptedException{
+		RandomStream master=new RandomStream(seed);
+		ExecutorService pool=Executors.newFixedThreadPool(threads);
+		CompletionService<Result> completion=new ExecutorCompletionService<Result>(pool);
+		try{
+			for(int i=0;i<runs;i++){
+				final int run=i;
+				final long runSeed=master.nextLong();
+				completion.submit(new Callable<Result>(){
+					public Result call(){
+						return runOnce(run,runSeed);
+					}
+				});
+			}
+			Result[] results=new Result[runs];
+			for(int i=0;i<runs;i++){
+				Result r;
+				try{
+					r=completion.take().get();
+				}catch(ExecutionException e){
+					throw new IllegalStateException("Run failed",e.getCause());
+				}
+				results[r.run]=r;
+				if(out!=null)
+					out.println(r.toCsv());
+			}
+			return Arrays.asList(results);
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		boolean synchronous=false;
+		boolean actors=false;
+		boolean jmx=false;
+		boolean record=false;
+		int auctionRadius=0;
+		int flags=0;
+		for(;flags<args.length && args[flags].startsWith("--");flags++){
+			if(args[flags].equals("--sync"))
+				synchronous=true;
+			else if(args[flags].equals("--actors"))
+				actors=true;
+			else if(args[flags].equals("--jmx"))
+				jmx=true;
+			else if(args[flags].equals("--record"))
+				record=true;
+			else if(args[flags].equals("--auction-radius") && flags+1<args.length)
+				auctionRadius=Integer.parseInt(args[++flags]);
+			else
+				throw new IllegalArgumentException("Unknown option: "+args[flags]);
+		}
+		args=Arrays.copyOfRange(args,flags,args.length);
+		//niente messaggi dei mondi: lo standard output e' riservato al CSV
+		World.verbose=false;
+		//simulation parameters, same defaults as WorldPanel
+		int runs=args.length>0 ? Integer.parseInt(args[0]) : 100;
+		int rows=args.length>1 ? Integer.parseInt(args[1]) : 28;
+		int columns=args.length>2 ? Integer.parseInt(args[2]) : 28;
+		int weedCells=args.length>3 ? Integer.parseInt(args[3]) : 40;
+		int agents=args.length>4 ? Integer.parseInt(args[4]) : 6;
+		int threads=args.length>5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		long maxSteps=args.length>6 ? Long.parseLong(args[6]) : 10000000L;
+		long seed=args.length>7 ? Long.parseLong(args[7]) : System.nanoTime();
+
+		PrintStream out=args.length>8 ? new PrintStream(new FileOutputStream(args[8])) : System.out;
+		out.println(CSV_HEADER);
+		long start=System.nanoTime();
+		BatchRunner runner=new BatchRunner(rows,columns,weedCells,agents,maxSteps);
+		runner.useSynchronousRounds(synchronous);
+		runner.useActors(actors);
+		runner.useJmx(jmx);
+		runner.useRecording(record);
+		runner.setAuctionRadius(auctionRadius);
+		List<Result> results=runner.runAll(runs,threads,seed,out);
+		long wall=System.nanoTime()-start;
+		out.flush();
+		if(out!=System.out)
+			out.close();
+
+		long totalSteps=0;
+		for(Result r : results)
+			totalSteps+=r.steps;
+		System.err.print("Runs "+runs+" on "+threads+" threads, master seed "+seed+", "+totalSteps+" steps in "+(wall/1000000)+" ms\n");
+	}
+}
@@ -1,5 +1,7 @@
 package multiagent;
 
+import java.util.*;
+
 /**
  * This class represents a bid an Agent can make, given an available task.
  * The task is represented by a Cell.
@@ -12,6 +14,18 @@ package multiagent;
  */
 public class Bid{
 
+	/**
+        Orders the bids by increasing cost and, for the same cost, by increasing id of the bidder.
+	 */
+	public static final Comparator<Bid> BY_COST = new Comparator<Bid>(){
+		@Override
+		public int compare(Bid a, Bid b){
+			if(a.cost != b.cost)
+				return Integer.compare(a.cost, b.cost);
+			return Integer.compare(a.bidder.getId(), b.bidder.getId());
+		}
+	};
+
 	/**
         This boolean represents the intention of the Agent to participate to the auction.
         If it is true, the Agent is interested, otherwise it's not.
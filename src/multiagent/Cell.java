@@ -4,6 +4,9 @@ import java.io.*;
 
 /**
  * This class represents a cell of the World.
+ * <p> A Cell is a lightweight view: its state is stored by the Grid of the World
+ * at the index of the cell, so that views for the same coordinates share the same state.
+ * A Cell created with one of the public constructors does not belong to any World.
  * @version 1.1
  * @author Albani Dario
  * 
@@ -14,33 +17,23 @@ import java.io.*;
 public class Cell implements Serializable{
 	private static final long serialVersionUID = 1L;
 
-	//per il calcolo del potenziale repulsivo
-	private float lastTime = 0.0f;
-	//per il calcolo del potenziale attrattivos
-	private double aggregate = 0.0f;
-
-	/**The status of the Cell.*/
-	private boolean visited = false;
-	private boolean weed = false;
-	private boolean sprayed = false;
+	/**
+	 * The storage of the state of the cell (potentials, status, agent and task)
+	 * and the index of the cell in it.
+	 */
+	final Grid grid;
+	int index;
 
 	/**Cell coordinates */
 	private int row;
 	private int col;
-	
-	/**
-	 * The Agent that has visited this Cell or that has requested to execute
-	 * an action relative to this cell (-1 if there is no agent).
-	 */
-	private int agent=-1;
-
-	/**Location of the task this Cell is associated to (initially null)*/
-	protected Task task;
 
 	/**
 	 * Creates a new Cell
 	 */
 	public Cell(int row, int col){
+		this.grid = Grid.detached();
+		this.index = grid.index(0, 0);
 		this.row = row;
 		this.col = col;
 	}
@@ -49,21 +42,29 @@ public class Cell implements Serializable{
 	 * Creates a new Cell
 	 */
 	public Cell(int row, int col, Task task){
-		this.task = task;
-		this.row = row;
-		this.col = col;
+		this(row, col);
+		if(task != null)
+			setTask(task);
 	}
 
 	/**
 	 * Creates a new Cell
 	 */
 	public Cell(int row, int col, boolean visited, boolean weed, boolean sprayed, Task task){
+		this(row, col, task);
+		setVisited(visited);
+		setWeed(weed);
+		setSprayed(sprayed);
+	}
+
+	/**
+	 * Creates a view of the cell with the given index of a World.
+	 */
+	Cell(Grid grid, int index, int row, int col){
+		this.grid = grid;
+		this.index = index;
 		this.row = row;
 		this.col = col;
-		this.visited = visited;
-		this.weed = weed;
-		this.sprayed = sprayed;
-		this.task = task;
 	}
 
 	/**
@@ -73,57 +74,59 @@ public class Cell implements Serializable{
 
 	//per settare il potenziale attrattivo
 	public void setAttractivePot(double val) {
-		this.aggregate = val; 
+		grid.setAttract(index, (float) val);
 	}
 	//per prendere il valore attuale
 	public double getAttractivePot()  {
-		return this.aggregate;
+		return grid.getAttract(index);
 	}
-	//decremento del potenziale, fatto ad ogni step
+	//decremento di uno step in piu' del potenziale (il decadimento ad ogni step e' calcolato dal Grid)
 	public void decreaseAttractivePot() {
+		float aggregate = grid.getAttract(index);
 		if(aggregate == 0)
 			return;
 		else
-			this.aggregate -= this.aggregate*0.006f;
+			grid.setAttract(index, aggregate - aggregate*World.ATTRACT_DECAY);
 	}
 	//per prendere il valore attuale
 	public float lastVisited(){
-		return this.lastTime;
+		return grid.getRepulse(index);
 	}
-	//decremento del potenziale, fatto ad ogni step
+	//decremento di uno step in piu' del potenziale (il decadimento ad ogni step e' calcolato dal Grid)
 	public void decreaseVisited(){
+		float lastTime = grid.getRepulse(index);
 		if(lastTime == 0)
 			return;
 		else
-			this.lastTime -= this.lastTime*0.001f;
+			grid.setRepulse(index, lastTime - lastTime*World.REPULSE_DECAY);
 	}
 	//per settare il potenziale repulsivo
 	public void setLastVisited() {
-		this.lastTime = 1.0f;
+		grid.setRepulse(index, 1.0f);
 	}
 
 	public boolean isVisited (){
-		return this.visited;
+		return grid.is(index, Grid.VISITED);
 	}
 
 	public void setVisited(boolean visited){
-		this.visited = visited;
+		grid.set(index, Grid.VISITED, visited);
 	}
 
 	public boolean isWeed(){
-		return this.weed;
+		return grid.is(index, Grid.WEED);
 	}
 
 	public void setWeed(boolean weed){
-		this.weed = weed;
+		grid.set(index, Grid.WEED, weed);
 	}
 
 	public boolean isSprayed(){
-		return this.sprayed;
+		return grid.is(index, Grid.SPRAYED);
 	}
 
 	public void setSprayed(boolean sprayed){
-		this.sprayed = sprayed;
+		grid.set(index, Grid.SPRAYED, sprayed);
 	}
 
 	/**
@@ -135,6 +138,7 @@ public class Cell implements Serializable{
 
 	public void setRow(int row){
 		this.row = row;
+		moved();
 	}
 
 	public int getCol(){
@@ -143,20 +147,30 @@ public class Cell implements Serializable{
 
 	public void setCol(int col){
 		this.col = col;
+		moved();
+	}
+
+	/**
+	 * Makes a view of a World look at the cell with the current coordinates.
+	 */
+	private void moved(){
+		if(!grid.isDetached())
+			index = grid.index(row, col);
 	}
 
 	/**
 	 * Getter and setter for the task associated with the cell
 	 */
 	public Task getTask(){
-		return this.task;
+		return grid.getTaskStatus(index) == null ? null : new Task(this);
 	}
 
 	public void setTask(Task task){
 		if(task==null)
 			throw new NullPointerException("Trying to assing a null task to a Cell");
-		this.task=task;	
-		this.task.cell = this;
+		grid.setCompletedBy(index, task.getCompletedByAgent());
+		grid.setTaskStatus(index, task.getStatus());
+		task.attach(this);
 	}
 
 	/**
@@ -167,7 +181,7 @@ public class Cell implements Serializable{
 	 * @return the Agent associated to this Cell. If there is no such agent, -1.
 	 */
 	public int getAgent(){
-		return this.agent;
+		return grid.getOwner(index);
 	}
 
 	/**
@@ -176,7 +190,7 @@ public class Cell implements Serializable{
 	 * has requested to execute an action relative to this cell (-1 if there is no agent).
 	 */
 	public void setAgent(int ag){
-		agent=ag;
+		grid.setOwner(index, ag);
 	}
 
 	@Override
@@ -188,4 +202,9 @@ public class Cell implements Serializable{
 		Cell c = (Cell) o;
 		return row == c.row && col == c.col;
 	}
+
+	@Override
+	public int hashCode(){
+		return 31 * row + col;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package multiagent;
+
+import java.io.*;
+
+/**
+ * This class computes the value of a potential that decreases by a fixed
+ * fraction at every step, in closed form.
+ * <p> A potential written with value v at step t is worth v*(1-rate)^(now-t) at step now.
+ * The powers are tabulated up to the step after which any value allowed for the potential
+ * falls below the given threshold: from there on the potential reads as zero, which also
+ * keeps denormal floats out of the arithmetic.
+ */
+final class Decay implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**values below this threshold, in absolute value, read as zero*/
+	private final float epsilon;
+
+	/**powers[k] = (1-rate)^k*/
+	private final float[] powers;
+
+	/**
+	 * Constructor for this class.
+	 * @param rate the fraction lost at every step.
+	 * @param maxValue the largest absolute value the potential can be written with.
+	 * @param epsilon values below this threshold read as zero.
+	 */
+	Decay(float rate, float maxValue, float epsilon){
+		this.epsilon = epsilon;
+		double factor = 1.0 - rate;
+		int steps = (int) Math.ceil(Math.log(epsilon / maxValue) / Math.log(factor)) + 1;
+		powers = new float[Math.max(steps, 1)];
+		double p = 1.0;
+		for(int k = 0; k < powers.length; k++){
+			powers[k] = (float) p;
+			p *= factor;
+		}
+	}
+
+	/**Returns the number of steps after which any value allowed for the potential reads as zero.*/
+	int horizon(){
+		return powers.length;
+	}
+
+	/**
+	 * Returns the value of a potential after the given number of steps.
+	 * @param value the value written.
+	 * @param steps the number of steps elapsed since the value was written; a negative number
+	 * stands for a count that overflowed, so the value reads as fully decayed.
+	 * @return the decayed value, zero if below the threshold.
+	 */
+	float apply(float value, int steps){
+		if(steps < 0 || steps >= powers.length)
+			return 0;
+		float v = value * powers[steps];
+		return Math.abs(v) < epsilon ? 0 : v;
+	}
+}
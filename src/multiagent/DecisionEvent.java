@@ -0,0 +1,40 @@
+package multiagent;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event emitted by Agent.assignTasks for every decision of an agent:
+ * the action decided, the cell chosen, whether a flock leader was found and whether
+ * the agent had to escape a wall.
+ * <p> Like the other events of the simulation (SprayEvent, StepEvent) it costs almost nothing
+ * when no recording is running, e.g. java -XX:StartFlightRecording=filename=run.jfr multiagent.BatchRunner
+ */
+@Name("multiagent.Decision")
+@Label("Agent Decision")
+@Category({"Multiagent", "Agents"})
+@StackTrace(false)
+final class DecisionEvent extends Event{
+
+	@Label("Agent")
+	int agent;
+
+	@Label("Action")
+	String action;
+
+	@Label("Row")
+	int row;
+
+	@Label("Column")
+	int col;
+
+	@Label("Leader Found")
+	boolean leaderFound;
+
+	@Label("Leader")
+	@Description("Id of the flock leader followed, -1 if none")
+	int leader;
+
+	@Label("Escape Move")
+	@Description("True if no cell ahead was free and the agent moved to a random neighbour")
+	boolean escape;
+}
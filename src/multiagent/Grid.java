@@ -0,0 +1,676 @@
+package multiagent;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class stores the state of every cell of the World in flat primitive arrays.
+ * <p> A cell is identified by a single index. The grid is surrounded by a border
+ * one cell wide, marked with the BORDER flag, so that the eight neighbours of any
+ * cell of the world can be addressed without checking the coordinates:
+ * index(row,col) = (row+1)*stride + (col+1), with stride = width+2.
+ * <p> Cells are accessed through {@link Cell} and {@link Task}, which are lightweight views
+ * over this storage.
+ * <p> The state is kept in a {@link GridStorage}: Java arrays by default, or a memory-mapped
+ * file for fields larger than the heap. The potentials clock, its epoch and
+ * the tile counts are saved in the metadata of the storage by flush(), so that a mapped
+ * field can be reopened as it was; writeTo() saves them along with the cells in a snapshot.
+ * <p> The potentials decay lazily: each one is stored with the step it was written at
+ * and its current value is computed on read (see {@link Decay}), so that advancing the
+ * simulation by one step costs O(1) instead of a pass over the whole grid. The step is kept in
+ * a char, counted from an epoch shared by every cell: when the clock gets too far from the epoch,
+ * the epoch is moved forward (see rebase()), rewriting only the tiles that hold potentials.
+ * <p> The world is also partitioned in square tiles of TILE cells per side. Each tile counts
+ * its visited, weed and sprayed cells and has a version, bumped whenever one of its cells is
+ * written, so that whole-field operations can skip the tiles they do not need to look at
+ * and process the others in parallel (see forEachTile).
+ */
+final class Grid implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**Flags of a cell.*/
+	static final int BORDER = 1;
+	static final int VISITED = 2;
+	static final int WEED = 4;
+	static final int SPRAYED = 8;
+
+	/**The task status is stored in two bits of the flags: 0 means no task, otherwise Status.ordinal()+1.*/
+	private static final int TASK_SHIFT = 4;
+	private static final int TASK_MASK = 3 << TASK_SHIFT;
+	/**set on the cells that have agents, whose first agent is in the sparse OCCUPANT column*/
+	private static final int OCCUPIED = 64;
+	private static final Task.Status[] STATUSES = Task.Status.values();
+
+	/**side of a tile, in cells*/
+	static final int TILE = 64;
+
+	/**
+	 * Visitor of the tiles of the grid, see forEachTile.
+	 */
+	static interface TileVisitor{
+		/**
+		 * Processes one tile, that is the cells with row in [fromRow, toRow) and column in [fromCol, toCol).
+		 * Tiles are visited concurrently: a visitor must only write the cells of its tile.
+		 */
+		void visit(int tile, int fromRow, int toRow, int fromCol, int toCol);
+	}
+
+	/**number of rows and columns of the world, border excluded*/
+	final int height;
+	final int width;
+	/**distance between the indexes of two vertically adjacent cells*/
+	final int stride;
+
+	/**status flags, task status and the other columns of each cell*/
+	private final GridStorage storage;
+	/**values below this threshold read as zero*/
+	private static final float EPSILON = 1e-6f;
+	/**largest absolute value of a potential*/
+	static final float MAX_POTENTIAL = 16.0f;
+	private static final Decay ATTRACT = new Decay(World.ATTRACT_DECAY, MAX_POTENTIAL, EPSILON);
+	private static final Decay REPULSE = new Decay(World.REPULSE_DECAY, MAX_POTENTIAL, EPSILON);
+
+	/**ints of metadata before the tile counts: the potentials clock and its epoch, each in two halves*/
+	private static final int META = 4;
+
+	/**current step of the potentials clock*/
+	private long tick;
+	/**step the ticks of the cells are counted from; tick - epoch fits in a char when a potential is written*/
+	private long epoch;
+	/**true for the tiles that may hold a potential: written since the last rebase, or holding one then*/
+	private final boolean[] charged;
+	/**cells whose task is not done yet*/
+	private final TaskLedger openTasks;
+	/**cells that still have weeds*/
+	private final WeedIndex weeds;
+	/**true if this is the storage of a single cell that does not belong to any world*/
+	private boolean detached;
+
+	/**number of rows and columns of tiles*/
+	final int tileRows;
+	final int tileCols;
+	/**per-tile number of visited, weed and sprayed cells*/
+	private final int[] visitedCount;
+	private final int[] weedCount;
+	private final int[] sprayedCount;
+	/**per-tile number of cells whose task is not done yet*/
+	private final int[] openCount;
+	/**per-tile version, bumped whenever a cell of the tile is written*/
+	private final int[] versions;
+	/**number of visited cells associated to each agent, indexed by agent plus one;
+	 * null until first needed when the storage has been reopened*/
+	private int[] visitedBy;
+
+	/**
+	 * Creates the state of a world of the given size on the heap.
+	 */
+	Grid(int height, int width){
+		this(new HeapStorage(height, width, metaLength(height, width)));
+	}
+
+	/**
+	 * Creates the state of a world over the given storage, reading it back if the storage was reopened.
+	 */
+	Grid(GridStorage storage){
+		this.storage = storage;
+		this.height = storage.height;
+		this.width = storage.width;
+		this.stride = width + 2;
+		tileRows = (height + TILE - 1) / TILE;
+		tileCols = (width + TILE - 1) / TILE;
+		int tiles = tileRows * tileCols;
+		visitedCount = new int[tiles];
+		weedCount = new int[tiles];
+		sprayedCount = new int[tiles];
+		openCount = new int[tiles];
+		versions = new int[tiles];
+		charged = new boolean[tiles];
+		weeds = new WeedIndex();
+		if(!storage.isNew()){
+			tick = getLongMeta(0);
+			epoch = getLongMeta(2);
+			for(int t = 0; t < tiles; t++){
+				visitedCount[t] = storage.getMeta(META + t);
+				weedCount[t] = storage.getMeta(META + tiles + t);
+				sprayedCount[t] = storage.getMeta(META + 2 * tiles + t);
+				openCount[t] = storage.getMeta(META + 3 * tiles + t);
+			}
+			//non so quali tile abbiano ancora potenziali
+			Arrays.fill(charged, true);
+			openTasks = new TaskLedger(this);
+			relistWeeds();
+			return;
+		}
+		visitedBy = new int[1];
+		openTasks = new TaskLedger(this);
+		int size = storage.size();
+		for(int c = 0; c < stride; c++){
+			storage.setFlags(c, (byte) BORDER);
+			storage.setFlags(size - stride + c, (byte) BORDER);
+		}
+		for(int r = 1; r <= height; r++){
+			storage.setFlags(r * stride, (byte) BORDER);
+			storage.setFlags(r * stride + width + 1, (byte) BORDER);
+		}
+	}
+
+	/**
+	 * Returns the number of metadata ints a storage needs for a world of the given size:
+	 * the potentials clock, its epoch and the four counts of each tile.
+	 */
+	static int metaLength(int height, int width){
+		return META + 4 * ((height + TILE - 1) / TILE) * ((width + TILE - 1) / TILE);
+	}
+
+	/**
+	 * Lists the weeds from the flags of the cells, looking only at the tiles that have some.
+	 */
+	private void relistWeeds(){
+		int[] found = new int[count(WEED)];
+		int n = 0;
+		for(int t = 0; t < versions.length; t++){
+			if(weedCount[t] == 0)
+				continue;
+			int fromRow = (t / tileCols) * TILE;
+			int fromCol = (t % tileCols) * TILE;
+			for(int r = fromRow; r < Math.min(fromRow + TILE, height); r++){
+				int i = index(r, fromCol);
+				for(int c = fromCol; c < Math.min(fromCol + TILE, width); c++, i++)
+					if(is(i, WEED) && n < found.length)
+						found[n++] = i;
+			}
+		}
+		weeds.relist(found, n);
+	}
+
+	/**
+	 * Saves the metadata in the storage and writes the storage to its persistent copy, if any.
+	 */
+	void flush() throws IOException{
+		saveMeta();
+		storage.flush();
+	}
+
+	/**
+	 * Writes the state of the grid to a snapshot, read back by readFrom.
+	 */
+	void writeTo(Snapshot out) throws IOException{
+		saveMeta();
+		storage.writeTo(out);
+	}
+
+	/**
+	 * Reads back, on the heap, the state of a grid of the given size written by writeTo.
+	 * @throws IOException if the snapshot cannot be read.
+	 */
+	static Grid readFrom(Snapshot in, int height, int width) throws IOException{
+		return new Grid(HeapStorage.readFrom(in, height, width, metaLength(height, width)));
+	}
+
+	/**
+	 * Saves the potentials clock, its epoch and the tile counts in the metadata of the storage.
+	 */
+	private void saveMeta(){
+		int tiles = versions.length;
+		setLongMeta(0, tick);
+		setLongMeta(2, epoch);
+		for(int t = 0; t < tiles; t++){
+			storage.setMeta(META + t, visitedCount[t]);
+			storage.setMeta(META + tiles + t, weedCount[t]);
+			storage.setMeta(META + 2 * tiles + t, sprayedCount[t]);
+			storage.setMeta(META + 3 * tiles + t, openCount[t]);
+		}
+	}
+
+	private long getLongMeta(int k){
+		return ((long) storage.getMeta(k + 1) << 32) | (storage.getMeta(k) & 0xFFFFFFFFL);
+	}
+
+	private void setLongMeta(int k, long value){
+		storage.setMeta(k, (int) value);
+		storage.setMeta(k + 1, (int) (value >>> 32));
+	}
+
+	/**
+	 * Flushes and releases the storage.
+	 */
+	void close() throws IOException{
+		flush();
+		storage.close();
+	}
+
+	/**
+	 * Returns false if the state has been read back from a reopened storage.
+	 */
+	boolean isNew(){
+		return storage.isNew();
+	}
+
+	/**
+	 * Returns the index of the cell with the given coordinates.
+	 * Coordinates one step outside the world map to the border.
+	 */
+	int index(int row, int col){
+		return (row + 1) * stride + col + 1;
+	}
+
+	/**Returns the row of the cell with the given index.*/
+	int row(int index){
+		return index / stride - 1;
+	}
+
+	/**Returns the column of the cell with the given index.*/
+	int col(int index){
+		return index % stride - 1;
+	}
+
+	/**Returns the number of indexes, border included.*/
+	int size(){
+		return storage.size();
+	}
+
+	boolean isBorder(int i){
+		return (storage.getFlags(i) & BORDER) != 0;
+	}
+
+	boolean is(int i, int flag){
+		return (storage.getFlags(i) & flag) != 0;
+	}
+
+	void set(int i, int flag, boolean value){
+		int old = storage.getFlags(i);
+		int f = value ? old | flag : old & ~flag;
+		if(f == old)
+			return;
+		storage.setFlags(i, (byte) f);
+		int t = tile(i);
+		versions[t]++;
+		int delta = value ? 1 : -1;
+		if((flag & VISITED) != 0){
+			visitedCount[t] += delta;
+			countVisitedBy(getOwner(i), delta);
+		}
+		if((flag & WEED) != 0){
+			weedCount[t] += delta;
+			if(value)
+				weeds.add(i);
+			else
+				weeds.remove(i);
+		}
+		if((flag & SPRAYED) != 0)
+			sprayedCount[t] += delta;
+	}
+
+	float getAttract(int i){
+		return ATTRACT.apply(storage.getFloat(GridStorage.ATTRACT, i), age(GridStorage.ATTRACT_TICK, i));
+	}
+
+	void setAttract(int i, float value){
+		char stamp = stamp();
+		storage.setFloat(GridStorage.ATTRACT, i, value);
+		storage.setChar(GridStorage.ATTRACT_TICK, i, stamp);
+		int t = tile(i);
+		versions[t]++;
+		charged[t] = true;
+	}
+
+	float getRepulse(int i){
+		return REPULSE.apply(storage.getFloat(GridStorage.REPULSE, i), age(GridStorage.REPULSE_TICK, i));
+	}
+
+	void setRepulse(int i, float value){
+		char stamp = stamp();
+		storage.setFloat(GridStorage.REPULSE, i, value);
+		storage.setChar(GridStorage.REPULSE_TICK, i, stamp);
+		int t = tile(i);
+		versions[t]++;
+		charged[t] = true;
+	}
+
+	/**
+	 * Advances the potentials clock: every potential decays by the given number of steps.
+	 */
+	void tick(int steps){
+		tick += steps;
+	}
+
+	/**Returns the current step of the potentials clock.*/
+	long getTick(){
+		return tick;
+	}
+
+	/**
+	 * Returns the steps elapsed since a potential of cell i was written, given the column of its step,
+	 * at most Integer.MAX_VALUE.
+	 */
+	private int age(int column, int i){
+		return (int) Math.min(tick - epoch - storage.getChar(column, i), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the current step of the clock counted from the epoch, moving the epoch forward first
+	 * if the step does not fit in a char.
+	 */
+	private char stamp(){
+		if(tick - epoch > Character.MAX_VALUE)
+			rebase();
+		return (char) (tick - epoch);
+	}
+
+	/**
+	 * Moves the epoch forward, to the oldest step a potential may still have been written at and read
+	 * as not zero. The potentials written before then are cleared, the others are counted from the new
+	 * epoch; the tiles that held no potentials at the previous rebase and have not been written since
+	 * are skipped.
+	 */
+	private void rebase(){
+		//gli orizzonti dei decadimenti sono ben sotto Character.MAX_VALUE passi
+		long to = tick - Math.max(ATTRACT.horizon(), REPULSE.horizon());
+		for(int t = 0; t < charged.length; t++){
+			if(!charged[t])
+				continue;
+			boolean live = false;
+			int fromRow = (t / tileCols) * TILE;
+			int fromCol = (t % tileCols) * TILE;
+			int toRow = Math.min(fromRow + TILE, height);
+			int toCol = Math.min(fromCol + TILE, width);
+			//anche il bordo adiacente appartiene alla tile
+			for(int r = fromRow == 0 ? -1 : fromRow; r < (toRow == height ? height + 1 : toRow); r++){
+				int i = index(r, fromCol == 0 ? -1 : fromCol);
+				int end = index(r, toCol == width ? width + 1 : toCol);
+				for(; i < end; i++){
+					live |= rebase(ATTRACT, GridStorage.ATTRACT, GridStorage.ATTRACT_TICK, i, to);
+					live |= rebase(REPULSE, GridStorage.REPULSE, GridStorage.REPULSE_TICK, i, to);
+				}
+			}
+			charged[t] = live;
+		}
+		epoch = to;
+	}
+
+	/**
+	 * Counts a potential of cell i from the epoch to, or clears it if it reads as zero by then.
+	 * @return true if the potential is not zero.
+	 */
+	private boolean rebase(Decay decay, int column, int tickColumn, int i, long to){
+		if(storage.getInt(column, i) == 0)
+			return false;
+		long written = epoch + storage.getChar(tickColumn, i);
+		if(written < to || tick - written >= decay.horizon()){
+			storage.setInt(column, i, 0);
+			storage.setChar(tickColumn, i, (char) 0);
+			return false;
+		}
+		storage.setChar(tickColumn, i, (char) (written - to));
+		return true;
+	}
+
+	int getOwner(int i){
+		return storage.getSparse(GridStorage.OWNER, i) - 1;
+	}
+
+	void setOwner(int i, int agent){
+		int old = getOwner(i);
+		storage.setSparse(GridStorage.OWNER, i, agent + 1);
+		versions[tile(i)]++;
+		if(old != agent && is(i, VISITED)){
+			countVisitedBy(old, -1);
+			countVisitedBy(agent, 1);
+		}
+	}
+
+	/**
+	 * Returns the number of visited cells associated to the given agent, in O(1).
+	 */
+	int visitedBy(int agent){
+		if(visitedBy == null)
+			recountVisitedBy();
+		return agent + 1 < visitedBy.length ? visitedBy[agent + 1] : 0;
+	}
+
+	private void countVisitedBy(int agent, int delta){
+		if(visitedBy == null)
+			recountVisitedBy();
+		if(agent + 1 >= visitedBy.length)
+			visitedBy = Arrays.copyOf(visitedBy, Math.max(agent + 2, visitedBy.length * 2));
+		visitedBy[agent + 1] += delta;
+	}
+
+	/**
+	 * Counts the visited cells of each agent, looking only at the tiles that have some.
+	 */
+	private void recountVisitedBy(){
+		visitedBy = new int[1];
+		for(int t = 0; t < versions.length; t++){
+			if(visitedCount[t] == 0)
+				continue;
+			int fromRow = (t / tileCols) * TILE;
+			int fromCol = (t % tileCols) * TILE;
+			for(int r = fromRow; r < Math.min(fromRow + TILE, height); r++){
+				int i = index(r, fromCol);
+				for(int c = fromCol; c < Math.min(fromCol + TILE, width); c++, i++)
+					if(is(i, VISITED))
+						countVisitedBy(getOwner(i), 1);
+			}
+		}
+	}
+
+	int getOccupant(int i){
+		//la mappa e' consultata solo per le celle con agenti
+		if((storage.getFlags(i) & OCCUPIED) == 0)
+			return 0;
+		return storage.getSparse(GridStorage.OCCUPANT, i);
+	}
+
+	void setOccupant(int i, int agent){
+		int old = storage.getFlags(i);
+		storage.setFlags(i, (byte) (agent != 0 ? old | OCCUPIED : old & ~OCCUPIED));
+		storage.setSparse(GridStorage.OCCUPANT, i, agent);
+		versions[tile(i)]++;
+	}
+
+	/**
+	 * Returns the status of the task of the cell, or null if the cell has no task.
+	 */
+	Task.Status getTaskStatus(int i){
+		int code = (storage.getFlags(i) & TASK_MASK) >>> TASK_SHIFT;
+		return code == 0 ? null : STATUSES[code - 1];
+	}
+
+	/**
+	 * Sets the status of the task of the cell, keeping the open tasks up to date.
+	 * A null status removes the task.
+	 */
+	void setTaskStatus(int i, Task.Status status){
+		int t = tile(i);
+		int before = openCount[t];
+		putTaskStatus(i, status);
+		if(openCount[t] != before)
+			openTasks.changed(openCount[t] - before);
+	}
+
+	/**
+	 * Sets the status of the task of the cell without updating the open tasks,
+	 * so that it can be called concurrently on different tiles.
+	 * rebuildOpenTasks() must be called afterwards.
+	 */
+	void putTaskStatus(int i, Task.Status status){
+		int code = status == null ? 0 : status.ordinal() + 1;
+		int old = storage.getFlags(i);
+		storage.setFlags(i, (byte)((old & ~TASK_MASK) | (code << TASK_SHIFT)));
+		int t = tile(i);
+		versions[t]++;
+		boolean wasOpen = isOpen((old & TASK_MASK) >>> TASK_SHIFT);
+		if(wasOpen != isOpen(code))
+			openCount[t] += wasOpen ? -1 : 1;
+	}
+
+	private static boolean isOpen(int code){
+		return code != 0 && STATUSES[code - 1] != Task.Status.DONE;
+	}
+
+	/**
+	 * Counts again the open tasks from the counts of the tiles, after putTaskStatus.
+	 */
+	void rebuildOpenTasks(){
+		openTasks.recount();
+	}
+
+	/**Returns the number of cells of the given tile whose task is not done yet.*/
+	int openCount(int tile){
+		return openCount[tile];
+	}
+
+	/**
+	 * Returns the first cell of the given tile whose task is not done yet, after the given cell
+	 * by row then by column, -1 if there is none.
+	 * @param after a cell of the tile, -1 to start from the first one.
+	 */
+	int nextOpenTask(int tile, int after){
+		int fromRow = (tile / tileCols) * TILE;
+		int fromCol = (tile % tileCols) * TILE;
+		int toRow = Math.min(fromRow + TILE, height);
+		int toCol = Math.min(fromCol + TILE, width);
+		int r = fromRow;
+		int c = fromCol;
+		if(after >= 0){
+			r = row(after);
+			c = col(after) + 1;
+		}
+		for(; r < toRow; r++, c = fromCol){
+			int i = index(r, c);
+			for(; c < toCol; c++, i++){
+				if(isOpen((storage.getFlags(i) & TASK_MASK) >>> TASK_SHIFT))
+					return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the agent that accomplished the task of the cell, 0 if none, -1 if unknown.
+	 */
+	int getCompletedBy(int i){
+		//-1 e' salvato come 0xFFFF, cosi' le celle nuove valgono 0
+		char agent = storage.getChar(GridStorage.COMPLETED_BY, i);
+		return agent == Character.MAX_VALUE ? -1 : agent;
+	}
+
+	void setCompletedBy(int i, int agent){
+		if(agent < -1 || agent >= Character.MAX_VALUE)
+			throw new IllegalArgumentException("Agent " + agent + " out of range");
+		storage.setChar(GridStorage.COMPLETED_BY, i, (char) agent);
+		versions[tile(i)]++;
+	}
+
+	/**Returns the cells whose task is not done yet.*/
+	TaskLedger openTasks(){
+		return openTasks;
+	}
+
+	/**Returns the cells that still have weeds.*/
+	WeedIndex weeds(){
+		return weeds;
+	}
+
+	/**Returns the tile of the cell with the given index, the border belonging to the nearest tile.*/
+	int tile(int i){
+		int r = Math.min(Math.max(i / stride - 1, 0), height - 1);
+		int c = Math.min(Math.max(i % stride - 1, 0), width - 1);
+		return (r / TILE) * tileCols + c / TILE;
+	}
+
+	/**Returns the number of tiles.*/
+	int tileCount(){
+		return versions.length;
+	}
+
+	/**
+	 * Returns the number of cells of the given tile with the given flag set.
+	 * @param flag one of VISITED, WEED and SPRAYED.
+	 */
+	int count(int tile, int flag){
+		switch(flag){
+			case VISITED: return visitedCount[tile];
+			case WEED: return weedCount[tile];
+			case SPRAYED: return sprayedCount[tile];
+			default: throw new IllegalArgumentException("Flag not counted: " + flag);
+		}
+	}
+
+	/**
+	 * Returns the number of cells of the grid with the given flag set.
+	 * @param flag one of VISITED, WEED and SPRAYED.
+	 */
+	int count(int flag){
+		int total = 0;
+		for(int t = 0; t < versions.length; t++)
+			total += count(t, flag);
+		return total;
+	}
+
+	/**
+	 * Returns the version of the given tile, which changes whenever one of its cells is written.
+	 * Readers keep the versions they last saw, so that each can tell on its own which tiles changed.
+	 */
+	int version(int tile){
+		return versions[tile];
+	}
+
+	/**
+	 * Visits every tile, in parallel over the fork-join pool when there is more than one.
+	 */
+	void forEachTile(TileVisitor visitor){
+		if(versions.length == 1)
+			visitTile(visitor, 0);
+		else
+			new TileRange(visitor, 0, versions.length).invoke();
+	}
+
+	private void visitTile(TileVisitor visitor, int t){
+		int fromRow = (t / tileCols) * TILE;
+		int fromCol = (t % tileCols) * TILE;
+		visitor.visit(t, fromRow, Math.min(fromRow + TILE, height), fromCol, Math.min(fromCol + TILE, width));
+	}
+
+	/**
+	 * Visits the tiles in the given range, splitting the range over the fork-join pool.
+	 */
+	private class TileRange extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		private final TileVisitor visitor;
+		private final int from;
+		private final int to;
+
+		TileRange(TileVisitor visitor, int from, int to){
+			this.visitor = visitor;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= 1){
+				for(int t = from; t < to; t++)
+					visitTile(visitor, t);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TileRange(visitor, from, mid), new TileRange(visitor, mid, to));
+		}
+	}
+
+	/**
+	 * Returns the storage for a cell that does not belong to any world.
+	 */
+	static Grid detached(){
+		Grid grid = new Grid(1, 1);
+		grid.detached = true;
+		return grid;
+	}
+
+	boolean isDetached(){
+		return detached;
+	}
+}
@@ -0,0 +1,246 @@
+package multiagent;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * This class is the memory in which a Grid keeps the state of its cells.
+ * <p> The state of a cell is a byte of flags, a fixed set of int columns holding the raw bits
+ * of a float and a fixed set of char columns, 15 bytes in all. The columns that stay zero in
+ * most cells for the whole run, such as the agents standing on a cell, are sparse: only their
+ * other values are kept, in a SlotMap per column, which is common to every implementation.
+ * A small array of metadata ints, whose meaning is up to the Grid, is kept along with the
+ * cells so that a storage can be reopened.
+ * <p> Two implementations exist: HeapStorage keeps the dense columns in Java arrays, MappedStorage
+ * keeps them off-heap in a memory-mapped file, for fields larger than the heap.
+ * Distinct cells can be written concurrently, except for the sparse columns.
+ */
+abstract class GridStorage implements Closeable{
+
+	/**Int columns of a cell: the potentials.*/
+	static final int ATTRACT = 0;
+	static final int REPULSE = 1;
+	static final int INT_COLUMNS = 2;
+
+	/**Char columns of a cell: the steps the potentials were written at, counted from the epoch of the Grid,
+	 * and the agent that accomplished its task, which a coverage run sets on every cell.*/
+	static final int ATTRACT_TICK = 0;
+	static final int REPULSE_TICK = 1;
+	static final int COMPLETED_BY = 2;
+	static final int CHAR_COLUMNS = 3;
+
+	/**Sparse columns of a cell.*/
+	static final int OWNER = 0;
+	static final int OCCUPANT = 1;
+	static final int SPARSE_COLUMNS = 2;
+
+	/**number of rows and columns of the world, border excluded*/
+	final int height;
+	final int width;
+
+	/**the values of the sparse columns that are not zero, by cell*/
+	private final SlotMap[] sparse = new SlotMap[SPARSE_COLUMNS];
+	/**true if the sparse columns have been written since the last call to sparseChanged()*/
+	private boolean sparseChanged = true;
+
+	GridStorage(int height, int width){
+		this.height = height;
+		this.width = width;
+		for(int column = 0; column < SPARSE_COLUMNS; column++)
+			sparse[column] = new SlotMap();
+	}
+
+	/**Returns the number of cells, border included.*/
+	final int size(){
+		return (height + 2) * (width + 2);
+	}
+
+	abstract byte getFlags(int i);
+
+	abstract void setFlags(int i, byte flags);
+
+	abstract int getInt(int column, int i);
+
+	abstract void setInt(int column, int i, int value);
+
+	float getFloat(int column, int i){
+		return Float.intBitsToFloat(getInt(column, i));
+	}
+
+	void setFloat(int column, int i, float value){
+		setInt(column, i, Float.floatToRawIntBits(value));
+	}
+
+	abstract char getChar(int column, int i);
+
+	abstract void setChar(int column, int i, char value);
+
+	final int getSparse(int column, int i){
+		return sparse[column].get(i, 0);
+	}
+
+	final void setSparse(int column, int i, int value){
+		sparseChanged = true;
+		if(value == 0)
+			sparse[column].remove(i, 0);
+		else
+			sparse[column].put(i, value);
+	}
+
+	/**Sets the given sparse column to zero in every cell.*/
+	final void clearSparse(int column){
+		sparseChanged = true;
+		sparse[column].clear();
+	}
+
+	/**
+	 * Returns true if the sparse columns have been written since the last call, so that
+	 * a persistent copy of them is rewritten only when needed.
+	 */
+	final boolean sparseChanged(){
+		boolean changed = sparseChanged;
+		sparseChanged = false;
+		return changed;
+	}
+
+	/**Returns the number of cells whose value in the given sparse column is not zero.*/
+	final int sparseCount(int column){
+		return sparse[column].size();
+	}
+
+	/**
+	 * Writes the sparse columns, as read back by readSparse: for each column,
+	 * the number of cells that are not zero followed by their indexes and values.
+	 */
+	final void writeSparse(Snapshot out) throws IOException{
+		ByteBuffer buffer = putSparse(null);
+		out.putBytes(buffer.array(), 0, buffer.limit());
+	}
+
+	/**
+	 * Reads back the sparse columns written by writeSparse.
+	 * @throws IOException if the snapshot cannot be read or holds cells out of the world.
+	 */
+	final void readSparse(Snapshot in) throws IOException{
+		for(int column = 0; column < SPARSE_COLUMNS; column++){
+			clearSparse(column);
+			int n = in.getInt();
+			for(int k = 0; k < n; k++){
+				int i = in.getInt();
+				if(i < 0 || i >= size())
+					throw new IOException("Cell " + i + " out of the field");
+				setSparse(column, i, in.getInt());
+			}
+		}
+	}
+
+	/**
+	 * Writes the sparse columns in the given buffer, in the layout of writeSparse,
+	 * first allocating a larger one if it does not fit.
+	 * @return the buffer written, flipped.
+	 */
+	final ByteBuffer putSparse(ByteBuffer buffer){
+		int bytes = 4 * SPARSE_COLUMNS;
+		for(SlotMap map : sparse)
+			bytes += 8 * map.size();
+		if(buffer == null || buffer.capacity() < bytes)
+			buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.clear();
+		for(SlotMap map : sparse){
+			buffer.putInt(map.size());
+			for(int e = 0; e < map.capacity(); e++){
+				if(map.keyAt(e) >= 0){
+					buffer.putInt(map.keyAt(e));
+					buffer.putInt(map.valueAt(e));
+				}
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads back the sparse columns from a buffer written by putSparse.
+	 * @throws IOException if the buffer is truncated or holds cells out of the world.
+	 */
+	final void getSparse(ByteBuffer buffer) throws IOException{
+		try{
+			for(int column = 0; column < SPARSE_COLUMNS; column++){
+				clearSparse(column);
+				int n = buffer.getInt();
+				for(int k = 0; k < n; k++){
+					int i = buffer.getInt();
+					if(i < 0 || i >= size())
+						throw new IOException("Cell " + i + " out of the field");
+					setSparse(column, i, buffer.getInt());
+				}
+			}
+		}catch(BufferUnderflowException e){
+			throw new EOFException("Truncated sparse columns");
+		}
+	}
+
+	/**Returns the number of metadata ints.*/
+	abstract int metaLength();
+
+	abstract int getMeta(int k);
+
+	abstract void setMeta(int k, int value);
+
+	/**
+	 * Returns true if the cells have just been created, false if they have been reopened
+	 * with the state they were saved with.
+	 */
+	abstract boolean isNew();
+
+	/**
+	 * Writes the flags of the cells, then each int and each char column from the first cell
+	 * to the last, then the sparse columns and the metadata, as read back by HeapStorage.readFrom.
+	 */
+	void writeTo(Snapshot out) throws IOException{
+		int size = size();
+		int[] block = new int[Math.min(size, 1 << 16)];
+		char[] chars = new char[block.length];
+		byte[] bytes = new byte[block.length];
+		for(int from = 0; from < size; from += bytes.length){
+			int n = Math.min(bytes.length, size - from);
+			for(int k = 0; k < n; k++)
+				bytes[k] = getFlags(from + k);
+			out.putBytes(bytes, 0, n);
+		}
+		for(int column = 0; column < INT_COLUMNS; column++){
+			for(int from = 0; from < size; from += block.length){
+				int n = Math.min(block.length, size - from);
+				for(int k = 0; k < n; k++)
+					block[k] = getInt(column, from + k);
+				out.putInts(block, 0, n);
+			}
+		}
+		for(int column = 0; column < CHAR_COLUMNS; column++){
+			for(int from = 0; from < size; from += chars.length){
+				int n = Math.min(chars.length, size - from);
+				for(int k = 0; k < n; k++)
+					chars[k] = getChar(column, from + k);
+				out.putChars(chars, 0, n);
+			}
+		}
+		writeSparse(out);
+		out.putInt(metaLength());
+		for(int k = 0; k < metaLength(); k++)
+			out.putInt(getMeta(k));
+	}
+
+	/**
+	 * Writes the state of the cells to their persistent copy, if any.
+	 */
+	void flush() throws IOException{
+	}
+
+	/**
+	 * Flushes and releases the storage.
+	 */
+	@Override
+	public void close() throws IOException{
+		flush();
+	}
+}
@@ -0,0 +1,112 @@
+package multiagent;
+
+import java.io.*;
+
+/**
+ * This class keeps the state of the cells of a Grid in Java arrays, one per dense column.
+ */
+final class HeapStorage extends GridStorage implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	private final byte[] flags;
+	private final int[][] ints;
+	private final char[][] chars;
+	private final int[] meta;
+	/**false if the cells have been read back from a snapshot*/
+	private boolean created = true;
+
+	/**
+	 * Creates the storage for a world of the given size, with every cell set to zero.
+	 * @param metaLength the number of metadata ints.
+	 */
+	HeapStorage(int height, int width, int metaLength){
+		super(height, width);
+		flags = new byte[size()];
+		ints = new int[INT_COLUMNS][size()];
+		chars = new char[CHAR_COLUMNS][size()];
+		meta = new int[metaLength];
+	}
+
+	/**
+	 * Reads back the storage of a world of the given size written by writeTo.
+	 * @throws IOException if the snapshot cannot be read or its metadata do not fit.
+	 */
+	static HeapStorage readFrom(Snapshot in, int height, int width, int metaLength) throws IOException{
+		HeapStorage storage = new HeapStorage(height, width, metaLength);
+		int size = storage.size();
+		in.getBytes(storage.flags, 0, size);
+		for(int column = 0; column < INT_COLUMNS; column++)
+			in.getInts(storage.ints[column], 0, size);
+		for(int column = 0; column < CHAR_COLUMNS; column++)
+			in.getChars(storage.chars[column], 0, size);
+		storage.readSparse(in);
+		if(in.getInt() != metaLength)
+			throw new IOException("The snapshot does not hold a field of " + height + "x" + width);
+		in.getInts(storage.meta, 0, metaLength);
+		storage.created = false;
+		return storage;
+	}
+
+	@Override
+	void writeTo(Snapshot out) throws IOException{
+		int size = size();
+		out.putBytes(flags, 0, size);
+		for(int column = 0; column < INT_COLUMNS; column++)
+			out.putInts(ints[column], 0, size);
+		for(int column = 0; column < CHAR_COLUMNS; column++)
+			out.putChars(chars[column], 0, size);
+		writeSparse(out);
+		out.putInt(meta.length);
+		out.putInts(meta, 0, meta.length);
+	}
+
+	@Override
+	byte getFlags(int i){
+		return flags[i];
+	}
+
+	@Override
+	void setFlags(int i, byte value){
+		flags[i] = value;
+	}
+
+	@Override
+	int getInt(int column, int i){
+		return ints[column][i];
+	}
+
+	@Override
+	void setInt(int column, int i, int value){
+		ints[column][i] = value;
+	}
+
+	@Override
+	char getChar(int column, int i){
+		return chars[column][i];
+	}
+
+	@Override
+	void setChar(int column, int i, char value){
+		chars[column][i] = value;
+	}
+
+	@Override
+	int metaLength(){
+		return meta.length;
+	}
+
+	@Override
+	int getMeta(int k){
+		return meta[k];
+	}
+
+	@Override
+	void setMeta(int k, int value){
+		meta[k] = value;
+	}
+
+	@Override
+	boolean isNew(){
+		return created;
+	}
+}
@@ -0,0 +1,95 @@
+package multiagent;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * This class records a distribution of durations, in nanoseconds, in buckets of
+ * exponentially growing width: bucket b holds the durations from 2^(b-1) to 2^b - 1.
+ * <p> Recording never allocates and adds to striped counters (LongAdder, LongAccumulator),
+ * so several threads can update the histogram at once without contending on the same
+ * word, and it can be read while it is updated; percentiles are approximated by the
+ * upper bound of their bucket, i.e. within a factor of two.
+ */
+final class Histogram{
+
+	private static final int BUCKETS = 65;
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator(){
+		@Override
+		public long applyAsLong(long left, long right){
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+	Histogram(){
+		for(int b = 0; b < BUCKETS; b++)
+			counts[b] = new LongAdder();
+	}
+
+	/**
+	 * Records a duration.
+	 * @param nanos the duration, in nanoseconds.
+	 */
+	void record(long nanos){
+		if(nanos < 0)
+			nanos = 0;
+		counts[64 - Long.numberOfLeadingZeros(nanos)].increment();
+		count.increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**Returns the number of durations recorded.*/
+	long getCount(){
+		return count.sum();
+	}
+
+	/**Returns the sum of the durations recorded, in nanoseconds.*/
+	long getTotal(){
+		return total.sum();
+	}
+
+	/**Returns the longest duration recorded, in nanoseconds.*/
+	long getMax(){
+		return max.get();
+	}
+
+	/**Returns the mean of the durations recorded, in nanoseconds, 0 if none.*/
+	double getMean(){
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile of the durations recorded, in nanoseconds, 0 if none.
+	 * @param p the percentile, between 0 and 1.
+	 */
+	long getPercentile(double p){
+		long n = 0;
+		for(int b = 0; b < BUCKETS; b++)
+			n += counts[b].sum();
+		long rank = (long) Math.ceil(p * n);
+		long seen = 0;
+		for(int b = 0; b < BUCKETS; b++){
+			seen += counts[b].sum();
+			if(seen >= rank && seen > 0)
+				return b == 0 ? 0 : b >= 63 ? max.get() : Math.min((1L << b) - 1, max.get());
+		}
+		return 0;
+	}
+
+	/**Forgets every duration recorded.*/
+	void reset(){
+		for(int b = 0; b < BUCKETS; b++)
+			counts[b].reset();
+		count.reset();
+		total.reset();
+		max.reset();
+	}
+}
@@ -0,0 +1,195 @@
+package multiagent;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * This class keeps the state of the cells of a Grid off-heap, in a memory-mapped file,
+ * so that the size of the field is bounded by the disk and the address space rather than
+ * by the heap, and the garbage collector never sees the cells.
+ * <p> The file starts with a header (magic number, version, size of the world and the
+ * metadata ints of the Grid) padded to a page, followed by one record of RECORD bytes per
+ * cell: the int columns in order, the char columns in order, then the flags. The records are
+ * mapped in chunks of 2^CHUNK_SHIFT cells, since a single mapping cannot exceed 2GB.
+ * The sparse columns, which hold a few cells at most, are kept on the heap and written
+ * after the records by flush(), when they have changed.
+ * Values are little-endian.
+ * <p> Reopening a file maps the records again without reading them, so the saved field is
+ * available at once; pages are loaded by the operating system when first touched.
+ * The mappings are released by the garbage collector once the storage is closed and unreachable.
+ */
+final class MappedStorage extends GridStorage{
+
+	private static final int MAGIC = 0x4D415347;
+	private static final int VERSION = 6;
+	private static final int HEADER_INTS = 5;
+	private static final int PAGE = 4096;
+
+	/**bytes per cell: the int columns, the char columns, then the flags*/
+	private static final int CHARS_OFFSET = INT_COLUMNS * 4;
+	private static final int FLAGS_OFFSET = CHARS_OFFSET + CHAR_COLUMNS * 2;
+	private static final int RECORD = FLAGS_OFFSET + 1;
+	private static final int CHUNK_SHIFT = 25;
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] chunks;
+	private final int metaLength;
+	private final boolean created;
+	/**position of the sparse columns in the file, after the records*/
+	private final long trailer;
+	/**buffer the sparse columns are written through, reused by flush()*/
+	private ByteBuffer sparse;
+
+	private MappedStorage(FileChannel channel, int height, int width, int metaLength, boolean created) throws IOException{
+		super(height, width);
+		this.channel = channel;
+		this.metaLength = metaLength;
+		this.created = created;
+		long headerBytes = headerBytes(metaLength);
+		header = map(0, headerBytes);
+		int cells = size();
+		trailer = headerBytes + (long) cells * RECORD;
+		chunks = new MappedByteBuffer[((cells - 1) >>> CHUNK_SHIFT) + 1];
+		for(int c = 0; c < chunks.length; c++){
+			long first = (long) c << CHUNK_SHIFT;
+			long count = Math.min(1L << CHUNK_SHIFT, cells - first);
+			chunks[c] = map(headerBytes + first * RECORD, count * RECORD);
+		}
+	}
+
+	private MappedByteBuffer map(long position, long bytes) throws IOException{
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private static long headerBytes(int metaLength){
+		long bytes = (HEADER_INTS + metaLength) * 4L;
+		return (bytes + PAGE - 1) / PAGE * PAGE;
+	}
+
+	/**
+	 * Opens the field stored in the given file, creating it if the file does not exist or is empty.
+	 * @param file the file.
+	 * @param height the number of rows of the world.
+	 * @param width the number of columns of the world.
+	 * @param metaLength the number of metadata ints.
+	 * @return the storage.
+	 * @throws IOException if the file cannot be mapped or holds a field of a different size.
+	 */
+	static MappedStorage open(File file, int height, int width, int metaLength) throws IOException{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try{
+			boolean created = channel.size() == 0;
+			if(!created){
+				ByteBuffer head = ByteBuffer.allocate(HEADER_INTS * 4).order(ByteOrder.LITTLE_ENDIAN);
+				channel.read(head, 0);
+				if(head.getInt(0) != MAGIC || head.getInt(4) != VERSION)
+					throw new IOException(file + " does not hold a field");
+				if(head.getInt(8) != height || head.getInt(12) != width || head.getInt(16) != metaLength)
+					throw new IOException(file + " holds a field of " + head.getInt(8) + "x" + head.getInt(12)
+							+ ", not " + height + "x" + width);
+			}
+			MappedStorage storage = new MappedStorage(channel, height, width, metaLength, created);
+			if(!created){
+				ByteBuffer trailer = ByteBuffer.allocate((int) Math.max(Math.min(channel.size() - storage.trailer, Integer.MAX_VALUE), 0));
+				trailer.order(ByteOrder.LITTLE_ENDIAN);
+				while(trailer.hasRemaining()){
+					if(channel.read(trailer, storage.trailer + trailer.position()) < 0)
+						break;
+				}
+				trailer.flip();
+				storage.getSparse(trailer);
+			}
+			if(created){
+				storage.header.putInt(0, MAGIC);
+				storage.header.putInt(4, VERSION);
+				storage.header.putInt(8, height);
+				storage.header.putInt(12, width);
+				storage.header.putInt(16, metaLength);
+			}
+			return storage;
+		}catch(IOException | RuntimeException e){
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	byte getFlags(int i){
+		return chunks[i >>> CHUNK_SHIFT].get((i & CHUNK_MASK) * RECORD + FLAGS_OFFSET);
+	}
+
+	@Override
+	void setFlags(int i, byte value){
+		chunks[i >>> CHUNK_SHIFT].put((i & CHUNK_MASK) * RECORD + FLAGS_OFFSET, value);
+	}
+
+	@Override
+	int getInt(int column, int i){
+		return chunks[i >>> CHUNK_SHIFT].getInt((i & CHUNK_MASK) * RECORD + column * 4);
+	}
+
+	@Override
+	void setInt(int column, int i, int value){
+		chunks[i >>> CHUNK_SHIFT].putInt((i & CHUNK_MASK) * RECORD + column * 4, value);
+	}
+
+	@Override
+	char getChar(int column, int i){
+		return chunks[i >>> CHUNK_SHIFT].getChar((i & CHUNK_MASK) * RECORD + CHARS_OFFSET + column * 2);
+	}
+
+	@Override
+	void setChar(int column, int i, char value){
+		chunks[i >>> CHUNK_SHIFT].putChar((i & CHUNK_MASK) * RECORD + CHARS_OFFSET + column * 2, value);
+	}
+
+	@Override
+	int metaLength(){
+		return metaLength;
+	}
+
+	@Override
+	int getMeta(int k){
+		return header.getInt((HEADER_INTS + k) * 4);
+	}
+
+	@Override
+	void setMeta(int k, int value){
+		header.putInt((HEADER_INTS + k) * 4, value);
+	}
+
+	@Override
+	boolean isNew(){
+		return created;
+	}
+
+	@Override
+	void flush() throws IOException{
+		if(sparseChanged()){
+			sparse = putSparse(sparse);
+			long end = trailer + sparse.limit();
+			while(sparse.hasRemaining())
+				channel.write(sparse, end - sparse.remaining());
+			channel.truncate(end);
+		}
+		header.force();
+		for(MappedByteBuffer chunk : chunks)
+			chunk.force();
+	}
+
+	@Override
+	public void close() throws IOException{
+		try{
+			flush();
+		}finally{
+			channel.close();
+		}
+	}
+}
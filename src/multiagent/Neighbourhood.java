@@ -0,0 +1,84 @@
+package multiagent;
+
+import java.io.*;
+
+/**
+ * This class holds the tables from which the moves of an agent are generated.
+ * <p> The heading of an agent is given by the signs of its direction along rows and columns,
+ * heading = (sign(dirRow)+1)*3 + sign(dirCol)+1, and for each heading AHEAD lists the three
+ * cells the agent may move to, best first, as row and column offsets. AROUND lists the eight
+ * neighbours, in the order in which they are offered when the agent has to escape a wall.
+ * <p> The offsets are translated once into differences between grid indexes, so that the
+ * candidate cells of a move are found with one addition each; thanks to the border of the
+ * grid, a neighbour outside the world is recognised by its BORDER flag.
+ * Other headings or neighbourhood shapes only require changing the tables.
+ */
+final class Neighbourhood implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**number of cells ahead for each heading*/
+	static final int AHEAD_CELLS = 3;
+
+	/**row and column offsets of the cells ahead, for each heading*/
+	private static final int[][] AHEAD = {
+		//righe indietro: colonne indietro, ferma, avanti
+		{-1,-1, -1,0, 0,-1},	//diag giu dx
+		{-1,0, -1,-1, -1,1},	//giu
+		{0,1, -1,0, -1,1},		//diag giu sx
+		//righe ferme
+		{0,-1, 1,-1, -1,-1},	//dx
+		{0,1, 1,1, -1,1},		//all'inizio, vai su
+		{0,1, 1,1, -1,1},		//sx
+		//righe avanti
+		{1,-1, 1,0, 0,-1},		//diag su dx
+		{1,0, 1,1, 1,-1},		//su
+		{1,1, 1,0, 0,1},		//diag su sx
+	};
+
+	/**row and column offsets of the eight neighbours*/
+	private static final int[] AROUND = {1,1, 1,0, 0,1, -1,-1, -1,0, 0,-1, -1,1, 1,-1};
+
+	/**differences between the index of a cell ahead and the index of the agent, AHEAD_CELLS per heading*/
+	private final int[] ahead;
+	/**differences between the index of a neighbour and the index of the agent*/
+	private final int[] around;
+
+	/**
+	 * Translates the tables for a grid with the given stride.
+	 */
+	Neighbourhood(int stride){
+		ahead = new int[AHEAD.length * AHEAD_CELLS];
+		for(int h = 0; h < AHEAD.length; h++)
+			for(int k = 0; k < AHEAD_CELLS; k++)
+				ahead[h * AHEAD_CELLS + k] = AHEAD[h][2 * k] * stride + AHEAD[h][2 * k + 1];
+		around = new int[AROUND.length / 2];
+		for(int k = 0; k < around.length; k++)
+			around[k] = AROUND[2 * k] * stride + AROUND[2 * k + 1];
+	}
+
+	/**
+	 * Returns the heading of the given direction.
+	 */
+	static int heading(int dirRow, int dirCol){
+		return (Integer.signum(dirRow) + 1) * 3 + Integer.signum(dirCol) + 1;
+	}
+
+	/**
+	 * Returns the difference between the index of the k-th cell ahead for the given heading and the index of the agent.
+	 */
+	int ahead(int heading, int k){
+		return ahead[heading * AHEAD_CELLS + k];
+	}
+
+	/**Returns the number of neighbours.*/
+	int aroundCount(){
+		return around.length;
+	}
+
+	/**
+	 * Returns the difference between the index of the k-th neighbour and the index of the agent.
+	 */
+	int around(int k){
+		return around[k];
+	}
+}
@@ -0,0 +1,61 @@
+package multiagent;
+
+import java.beans.*;
+
+/**
+ * Latency statistics of one phase of the steps of a simulation, as published by SimulationMonitor.
+ * Durations are in nanoseconds; percentiles are upper bounds, within a factor of two.
+ */
+public class PhaseStats{
+	private final String name;
+	private final long count;
+	private final double meanNanos;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long maxNanos;
+
+	@ConstructorProperties({"name", "count", "meanNanos", "p50Nanos", "p99Nanos", "maxNanos"})
+	public PhaseStats(String name, long count, double meanNanos, long p50Nanos, long p99Nanos, long maxNanos){
+		this.name=name;
+		this.count=count;
+		this.meanNanos=meanNanos;
+		this.p50Nanos=p50Nanos;
+		this.p99Nanos=p99Nanos;
+		this.maxNanos=maxNanos;
+	}
+
+	/**Returns the name of the phase.*/
+	public String getName(){
+		return name;
+	}
+
+	/**Returns the number of times the phase has been timed.*/
+	public long getCount(){
+		return count;
+	}
+
+	/**Returns the mean duration of the phase.*/
+	public double getMeanNanos(){
+		return meanNanos;
+	}
+
+	/**Returns the median duration of the phase.*/
+	public long getP50Nanos(){
+		return p50Nanos;
+	}
+
+	/**Returns the 99th percentile of the duration of the phase.*/
+	public long getP99Nanos(){
+		return p99Nanos;
+	}
+
+	/**Returns the longest duration of the phase.*/
+	public long getMaxNanos(){
+		return maxNanos;
+	}
+
+	@Override
+	public String toString(){
+		return name+": count "+count+", mean "+meanNanos+" ns, p50 "+p50Nanos+" ns, p99 "+p99Nanos+" ns, max "+maxNanos+" ns";
+	}
+}
@@ -0,0 +1,75 @@
+package multiagent;
+
+/**
+ * This class records how long each phase of the steps of a simulation takes, in a Histogram per phase.
+ * <p> The phases are the ones of an agent step: nextAction, executeAction (one histogram for
+ * each Action), updateState and assignTasks, plus the termination check and the decay
+ * of the potentials. A phase is timed by passing the time it started at to record(), which
+ * returns the time it ended at, so that consecutive phases are timed with one clock read each.
+ * <p> The simulator only records while timing is enabled (see AgentSim.setTimingEnabled),
+ * otherwise it does not read the clock at all.
+ */
+final class PhaseTimings{
+
+	static final int NEXT_ACTION = 0;
+	static final int UPDATE_STATE = 1;
+	static final int ASSIGN_TASKS = 2;
+	static final int TERMINATION_CHECK = 3;
+	static final int DECAY = 4;
+	/**first of the executeAction phases, one for each Action*/
+	private static final int EXECUTE_ACTION = 5;
+
+	private static final Action[] ACTIONS = Action.values();
+
+	private final Histogram[] histograms = new Histogram[EXECUTE_ACTION + ACTIONS.length];
+
+	PhaseTimings(){
+		for(int p = 0; p < histograms.length; p++)
+			histograms[p] = new Histogram();
+	}
+
+	/**Returns the phase in which the given action is executed.*/
+	static int execute(Action act){
+		return EXECUTE_ACTION + act.ordinal();
+	}
+
+	/**
+	 * Records a phase that started at the given time and ends now.
+	 * @param phase the phase.
+	 * @param since the time the phase started at, as given by System.nanoTime().
+	 * @return the current time, at which the next phase starts.
+	 */
+	long record(int phase, long since){
+		long now = System.nanoTime();
+		histograms[phase].record(now - since);
+		return now;
+	}
+
+	/**Returns the number of phases.*/
+	int size(){
+		return histograms.length;
+	}
+
+	/**Returns the name of the given phase.*/
+	String name(int phase){
+		switch(phase){
+			case NEXT_ACTION: return "nextAction";
+			case UPDATE_STATE: return "updateState";
+			case ASSIGN_TASKS: return "assignTasks";
+			case TERMINATION_CHECK: return "terminationCheck";
+			case DECAY: return "decay";
+			default: return "executeAction." + ACTIONS[phase - EXECUTE_ACTION];
+		}
+	}
+
+	/**Returns the histogram of the given phase.*/
+	Histogram get(int phase){
+		return histograms[phase];
+	}
+
+	/**Forgets every duration recorded.*/
+	void reset(){
+		for(Histogram h : histograms)
+			h.reset();
+	}
+}
@@ -0,0 +1,117 @@
+package multiagent;
+
+import java.io.*;
+
+/**
+ * This class is a seedable and splittable stream of pseudo-random numbers,
+ * based on the SplitMix64 algorithm used by java.util.SplittableRandom.
+ * <p> Each World and each Agent owns its own stream, split from the master stream of the
+ * simulator, so that simulations running in parallel threads never contend on a shared
+ * generator and any simulation can be replayed exactly from its seed.
+ * Unlike SplittableRandom, the state of the stream can be read and restored.
+ * A stream is not thread-safe: it must be used by one thread at a time.
+ */
+public final class RandomStream implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+	/**current state*/
+	private long seed;
+	/**odd increment of the state*/
+	private final long gamma;
+
+	/**
+	 * Creates a stream with the given seed.
+	 * @param seed the initial seed.
+	 */
+	public RandomStream(long seed){
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Creates a stream with the given state, as returned by getSeed() and getGamma().
+	 */
+	RandomStream(long seed, long gamma){
+		if((gamma & 1L) == 0)
+			throw new IllegalArgumentException("The gamma of a stream must be odd");
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * Returns a new stream, statistically independent from this one and from the
+	 * other streams split from it. This stream advances by two values.
+	 * @return the new stream.
+	 */
+	public RandomStream split(){
+		return new RandomStream(mix64(nextSeed()), mixGamma(nextSeed()));
+	}
+
+	/**
+	 * Returns a pseudo-random long.
+	 * @return the next long of the stream.
+	 */
+	public long nextLong(){
+		return mix64(nextSeed());
+	}
+
+	/**
+	 * Returns a pseudo-random double between 0 (included) and 1 (excluded).
+	 * @return the next double of the stream.
+	 */
+	public double nextDouble(){
+		return (mix64(nextSeed()) >>> 11) * DOUBLE_UNIT;
+	}
+
+	/**
+	 * Returns a pseudo-random int between 0 (included) and bound (excluded), without bias.
+	 * @param bound the upper bound, must be positive.
+	 * @return the next int of the stream in [0, bound).
+	 */
+	public int nextInt(int bound){
+		if(bound <= 0)
+			throw new IllegalArgumentException("The bound must be positive: " + bound);
+		int r = mix32(nextSeed());
+		int m = bound - 1;
+		if((bound & m) == 0)
+			return r & m;
+		for(int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1)
+			;
+		return r;
+	}
+
+	/**Returns the current state of the stream.*/
+	long getSeed(){
+		return seed;
+	}
+
+	/**Returns the increment of the state of the stream.*/
+	long getGamma(){
+		return gamma;
+	}
+
+	private long nextSeed(){
+		return seed += gamma;
+	}
+
+	private static long mix64(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static int mix32(long z){
+		z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+		return (int)(((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+	}
+
+	private static long mixGamma(long z){
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
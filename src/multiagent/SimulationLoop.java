@@ -0,0 +1,224 @@
+package multiagent;
+
+import java.util.concurrent.locks.*;
+
+/**
+ * This class runs a simulator on a thread of its own, so that a display can paint the world
+ * at its own rate (see WorldPanel).
+ * <p> Each step is performed holding the lock returned by getLock(): whoever reads the world
+ * while holding it sees the state between two steps. The lock is fair, so that a reader
+ * waiting for it gets it at the end of the current step even when the simulation runs at full
+ * speed.
+ * <p> The simulation starts paused. When running, its speed is set by a target of steps per
+ * second, or by a number of steps granted at each frame, that is at each call to frame(); with
+ * neither, or when fast-forwarding, it runs as fast as it can. While paused, single steps can be
+ * requested with step().
+ */
+final class SimulationLoop implements Runnable{
+
+	private final AgentSim simulator;
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private Thread thread;
+
+	//stato condiviso con il thread della grafica, protetto da this
+	private boolean paused = true;
+	private boolean fast;
+	private double stepsPerSecond;
+	private int stepsPerFrame;
+	/**steps left of those granted by frame() or by step()*/
+	private int budget;
+	private int single;
+	private boolean over;
+
+	/**steps performed, the last one excluded if it ended the simulation*/
+	private volatile long stepsDone;
+
+	/**time, from System.nanoTime(), at which the next paced step is due*/
+	private long due;
+
+	/**
+	 * Creates a loop, not started yet, for the given simulator.
+	 */
+	SimulationLoop(AgentSim simulator){
+		this.simulator = simulator;
+	}
+
+	/**Returns the lock held while performing a step.*/
+	Lock getLock(){
+		return lock;
+	}
+
+	/**
+	 * Starts the thread of the simulation, paused.
+	 */
+	synchronized void start(){
+		if(thread != null)
+			return;
+		thread = new Thread(this, "simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the thread of the simulation, waiting for the current step to end.
+	 * The loop can be started again, going on from the same state.
+	 */
+	void stop() throws InterruptedException{
+		Thread t;
+		synchronized(this){
+			t = thread;
+		}
+		if(t == null)
+			return;
+		t.interrupt();
+		t.join();
+		synchronized(this){
+			if(thread == t)
+				thread = null;
+		}
+	}
+
+	/**
+	 * Sets the target speed of the simulation.
+	 * @param stepsPerSecond the steps per second, 0 to run as fast as possible.
+	 */
+	synchronized void setStepsPerSecond(double stepsPerSecond){
+		this.stepsPerSecond = Math.max(stepsPerSecond, 0);
+		due = System.nanoTime();
+	}
+
+	synchronized double getStepsPerSecond(){
+		return stepsPerSecond;
+	}
+
+	/**
+	 * Ties the speed of the simulation to the frames.
+	 * @param stepsPerFrame the steps performed at each frame, 0 not to tie them.
+	 */
+	synchronized void setStepsPerFrame(int stepsPerFrame){
+		this.stepsPerFrame = Math.max(stepsPerFrame, 0);
+		budget = 0;
+		notifyAll();
+	}
+
+	synchronized int getStepsPerFrame(){
+		return stepsPerFrame;
+	}
+
+	/**
+	 * Grants the steps of a new frame, if the speed is tied to the frames.
+	 * The steps of a frame that were not performed are not carried over.
+	 */
+	synchronized void frame(){
+		if(stepsPerFrame > 0){
+			budget = stepsPerFrame;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Pauses the simulation or lets it run again.
+	 */
+	synchronized void setPaused(boolean paused){
+		this.paused = paused;
+		single = 0;
+		due = System.nanoTime();
+		notifyAll();
+	}
+
+	synchronized boolean isPaused(){
+		return paused;
+	}
+
+	/**
+	 * Makes the simulation run as fast as it can, ignoring the target speed, or stops doing so.
+	 */
+	synchronized void setFastForward(boolean fast){
+		this.fast = fast;
+		due = System.nanoTime();
+		notifyAll();
+	}
+
+	synchronized boolean isFastForward(){
+		return fast;
+	}
+
+	/**
+	 * Performs one more step while the simulation is paused.
+	 */
+	synchronized void step(){
+		if(paused){
+			single++;
+			notifyAll();
+		}
+	}
+
+	/**Returns true once the simulation is over.*/
+	synchronized boolean isOver(){
+		return over;
+	}
+
+	/**Returns the number of steps performed, the one that ended the simulation excluded.*/
+	long getStepsDone(){
+		return stepsDone;
+	}
+
+	/**
+	 * Waits until a step may be performed and takes it from the budget.
+	 * @return the time the step is due at, 0 if it is not paced.
+	 */
+	private synchronized long acquire() throws InterruptedException{
+		while(true){
+			if(paused){
+				if(single > 0){
+					single--;
+					return 0;
+				}
+			}
+			else if(fast || stepsPerFrame == 0){
+				if(fast || stepsPerSecond == 0)
+					return 0;
+				//passo al ritmo richiesto, senza recuperare piu' di un secondo di ritardo
+				long now = System.nanoTime();
+				due = Math.max(due + (long)(1e9 / stepsPerSecond), now - 1000000000L);
+				return due;
+			}
+			else if(budget > 0){
+				budget--;
+				return 0;
+			}
+			wait();
+		}
+	}
+
+	@Override
+	public void run(){
+		try{
+			while(true){
+				long at = acquire();
+				if(at != 0){
+					long wait = at - System.nanoTime();
+					if(wait > 0)
+						Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+				}
+				boolean stop;
+				lock.lockInterruptibly();
+				try{
+					stop = simulator.step();
+				}finally{
+					lock.unlock();
+				}
+				if(stop){
+					synchronized(this){
+						over = true;
+						notifyAll();
+					}
+					return;
+				}
+				stepsDone++;
+			}
+		}catch(InterruptedException e){
+			//fermato da stop()
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package multiagent;
+
+import java.lang.management.*;
+
+import javax.management.*;
+
+/**
+ * This class publishes the statistics of a simulation as a platform MXBean, so that a
+ * long run can be watched live from JConsole or any other JMX client.
+ * <p> Besides the counters of the actions kept by AgentSim, the MXBean publishes the latency
+ * histograms of the phases of the steps (see PhaseTimings) and allows to switch timing on and off.
+ * Values are read while the simulation runs, without stopping it, so they may be slightly out of date.
+ */
+public class SimulationMonitor implements SimulationMonitorMXBean{
+
+	private final AgentSim sim;
+
+	/**
+	 * Constructor for this class.
+	 * @param sim the simulator to monitor.
+	 */
+	public SimulationMonitor(AgentSim sim){
+		this.sim=sim;
+	}
+
+	/**
+	 * Registers a monitor of the given simulator in the platform MBean server,
+	 * as multiagent:type=AgentSim,name=name.
+	 * @param sim the simulator to monitor.
+	 * @param name the name of the simulation.
+	 * @return the name under which the monitor has been registered.
+	 * @throws JMException if the monitor cannot be registered, e.g. because the name is taken.
+	 */
+	public static ObjectName register(AgentSim sim, String name) throws JMException{
+		ObjectName objectName=new ObjectName("multiagent:type=AgentSim,name="+ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new SimulationMonitor(sim),objectName);
+		return objectName;
+	}
+
+	/**
+	 * Removes a monitor from the platform MBean server.
+	 * @param objectName the name returned by register.
+	 * @throws JMException if the monitor is not registered.
+	 */
+	public static void unregister(ObjectName objectName) throws JMException{
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+	public boolean isTimingEnabled(){
+		return sim.isTimingEnabled();
+	}
+
+	public void setTimingEnabled(boolean enabled){
+		sim.setTimingEnabled(enabled);
+	}
+
+	public long getStepsDone(){
+		return sim.getStepsDone();
+	}
+
+	public int getTotalMoveToLocation(){
+		return sim.getCalls(Action.moveToLocation);
+	}
+
+	public int getTotalNoOps(){
+		return sim.getCalls(Action.noOp);
+	}
+
+	public int getTotalNextTask(){
+		return sim.getCalls(Action.publishNextTask);
+	}
+
+	public int getWeedRemained(){
+		return sim.world.getWeedRemained();
+	}
+
+	public int getOpenTasks(){
+		return sim.world.getOpenTaskCount();
+	}
+
+	public PhaseStats[] getPhases(){
+		PhaseTimings timings=sim.getTimings();
+		PhaseStats[] phases=new PhaseStats[timings.size()];
+		for(int p=0;p<phases.length;p++){
+			Histogram h=timings.get(p);
+			phases[p]=new PhaseStats(timings.name(p),h.getCount(),h.getMean(),h.getPercentile(0.5),h.getPercentile(0.99),h.getMax());
+		}
+		return phases;
+	}
+
+	public void resetTimings(){
+		sim.getTimings().reset();
+	}
+}
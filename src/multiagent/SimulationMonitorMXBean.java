@@ -0,0 +1,37 @@
+package multiagent;
+
+/**
+ * Management interface of a running simulation, see SimulationMonitor.
+ */
+public interface SimulationMonitorMXBean{
+
+	/**Returns true if the phases of the steps are being timed.*/
+	boolean isTimingEnabled();
+
+	/**Starts or stops timing the phases of the steps.*/
+	void setTimingEnabled(boolean enabled);
+
+	/**Returns the number of agent steps performed so far.*/
+	long getStepsDone();
+
+	/**Returns the number of moveToLocation actions performed so far.*/
+	int getTotalMoveToLocation();
+
+	/**Returns the number of noOp actions performed so far.*/
+	int getTotalNoOps();
+
+	/**Returns the number of publishNextTask actions performed so far.*/
+	int getTotalNextTask();
+
+	/**Returns the number of cells that still have weeds.*/
+	int getWeedRemained();
+
+	/**Returns the number of tasks not accomplished yet.*/
+	int getOpenTasks();
+
+	/**Returns the latency statistics of each phase of the steps.*/
+	PhaseStats[] getPhases();
+
+	/**Forgets the latencies recorded so far.*/
+	void resetTimings();
+}
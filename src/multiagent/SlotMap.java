@@ -0,0 +1,148 @@
+package multiagent;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class maps the indexes of some cells to an int, such as their slot in a dense array
+ * for WeedIndex or the sparse columns of a GridStorage, without boxing.
+ * <p> Keys are non-negative ints. The table uses open addressing with linear
+ * probing and is kept at most half full, so a lookup touches one or two entries on average;
+ * removal shifts back the entries of the same run instead of leaving tombstones.
+ * Memory is proportional to the number of cells mapped, not to the size of the world.
+ */
+final class SlotMap implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**marks a free entry; keys are never negative*/
+	private static final int FREE = -1;
+
+	/**keys and values, in the same position; the length is a power of two*/
+	private int[] keys;
+	private int[] values;
+	/**number of keys mapped*/
+	private int size;
+	/**shift taking the 32 bits of the hash down to an entry*/
+	private int shift;
+
+	/**
+	 * Creates an empty map.
+	 */
+	SlotMap(){
+		allocate(16);
+	}
+
+	private void allocate(int capacity){
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+		shift = 32 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/**Returns the entry a key hashes to.*/
+	private int home(int key){
+		return (key * 0x9E3779B9) >>> shift;
+	}
+
+	/**
+	 * Returns the value of the given key, or absent if the key is not mapped.
+	 */
+	int get(int key, int absent){
+		int mask = keys.length - 1;
+		for(int e = home(key); ; e = (e + 1) & mask){
+			int k = keys[e];
+			if(k == key)
+				return values[e];
+			if(k == FREE)
+				return absent;
+		}
+	}
+
+	/**
+	 * Maps the given key to the given value, replacing its previous value if any.
+	 */
+	void put(int key, int value){
+		if(2 * (size + 1) > keys.length)
+			grow();
+		int mask = keys.length - 1;
+		for(int e = home(key); ; e = (e + 1) & mask){
+			int k = keys[e];
+			if(k == key){
+				values[e] = value;
+				return;
+			}
+			if(k == FREE){
+				keys[e] = key;
+				values[e] = value;
+				size++;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes the given key.
+	 * @return its value, or absent if the key was not mapped.
+	 */
+	int remove(int key, int absent){
+		int mask = keys.length - 1;
+		int e = home(key);
+		while(keys[e] != key){
+			if(keys[e] == FREE)
+				return absent;
+			e = (e + 1) & mask;
+		}
+		int value = values[e];
+		size--;
+		//riporto indietro le chiavi successive della stessa sequenza, che altrimenti non sarebbero piu' trovate
+		for(int next = (e + 1) & mask; keys[next] != FREE; next = (next + 1) & mask){
+			int h = home(keys[next]);
+			//la chiave puo' occupare e se la sua posizione naturale non cade tra e (escluso) e next
+			if(((next - h) & mask) >= ((next - e) & mask)){
+				keys[e] = keys[next];
+				values[e] = values[next];
+				e = next;
+			}
+		}
+		keys[e] = FREE;
+		return value;
+	}
+
+	/**
+	 * Removes every key, keeping the table allocated.
+	 */
+	void clear(){
+		Arrays.fill(keys, FREE);
+		size = 0;
+	}
+
+	/**Returns the number of keys mapped.*/
+	int size(){
+		return size;
+	}
+
+	/**Returns the number of entries of the table, which keyAt and valueAt go through.*/
+	int capacity(){
+		return keys.length;
+	}
+
+	/**Returns the key in the given entry of the table, -1 if the entry is free.*/
+	int keyAt(int e){
+		return keys[e];
+	}
+
+	/**Returns the value in the given entry of the table.*/
+	int valueAt(int e){
+		return values[e];
+	}
+
+	private void grow(){
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		size = 0;
+		for(int e = 0; e < oldKeys.length; e++)
+			if(oldKeys[e] != FREE)
+				put(oldKeys[e], oldValues[e]);
+	}
+}
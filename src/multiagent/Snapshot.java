@@ -0,0 +1,230 @@
+package multiagent;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * This class reads and writes the binary snapshot of a simulation (see AgentSim.storeWorld).
+ * <p> A snapshot starts with a magic number and a version, followed by the state of the simulator,
+ * of the world with its grid and of the agents, each written by its own class. Values are
+ * little-endian and go through a direct buffer of BUFFER bytes, so that the columns of the grid
+ * are copied to and from the FileChannel in bulk.
+ * <p> The version must be increased whenever the layout changes: older snapshots are then refused
+ * rather than misread.
+ */
+final class Snapshot implements Closeable{
+
+	private static final int MAGIC = 0x4D41534E;
+	private static final int VERSION = 7;
+	private static final int BUFFER = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final boolean writing;
+
+	private Snapshot(FileChannel channel, boolean writing){
+		this.channel = channel;
+		this.writing = writing;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+		if(!writing)
+			buffer.limit(0);
+	}
+
+	/**
+	 * Creates the given file, or empties it, and writes the header of a snapshot.
+	 * @throws IOException if the file cannot be written.
+	 */
+	static Snapshot create(File file) throws IOException{
+		Snapshot out = new Snapshot(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), true);
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		return out;
+	}
+
+	/**
+	 * Opens the snapshot stored in the given file and checks its header.
+	 * @throws IOException if the file cannot be read or does not hold a snapshot of this version.
+	 */
+	static Snapshot open(File file) throws IOException{
+		Snapshot in = new Snapshot(FileChannel.open(file.toPath(), StandardOpenOption.READ), false);
+		try{
+			if(in.getInt() != MAGIC)
+				throw new IOException(file + " does not hold a snapshot");
+			int version = in.getInt();
+			if(version != VERSION)
+				throw new IOException(file + " holds a snapshot of version " + version + ", not " + VERSION);
+			return in;
+		}catch(IOException | RuntimeException e){
+			in.channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Makes room for the given number of bytes, writing the buffer out when writing
+	 * or reading more of the file when reading.
+	 */
+	private void need(int bytes) throws IOException{
+		if(buffer.remaining() >= bytes)
+			return;
+		if(writing){
+			drain();
+			return;
+		}
+		buffer.compact();
+		while(buffer.position() < bytes){
+			if(channel.read(buffer) < 0)
+				throw new EOFException("Truncated snapshot");
+		}
+		buffer.flip();
+	}
+
+	private void drain() throws IOException{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	void putInt(int value) throws IOException{
+		need(4);
+		buffer.putInt(value);
+	}
+
+	void putLong(long value) throws IOException{
+		need(8);
+		buffer.putLong(value);
+	}
+
+	void putFloat(float value) throws IOException{
+		need(4);
+		buffer.putFloat(value);
+	}
+
+	void putBoolean(boolean value) throws IOException{
+		need(1);
+		buffer.put((byte)(value ? 1 : 0));
+	}
+
+	/**Writes the given ints, as many at a time as fit in the buffer.*/
+	void putInts(int[] values, int from, int length) throws IOException{
+		while(length > 0){
+			need(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, from, n);
+			buffer.position(buffer.position() + n * 4);
+			from += n;
+			length -= n;
+		}
+	}
+
+	/**Writes the given chars, as many at a time as fit in the buffer.*/
+	void putChars(char[] values, int from, int length) throws IOException{
+		while(length > 0){
+			need(2);
+			int n = Math.min(length, buffer.remaining() / 2);
+			buffer.asCharBuffer().put(values, from, n);
+			buffer.position(buffer.position() + n * 2);
+			from += n;
+			length -= n;
+		}
+	}
+
+	/**Writes the given bytes, as many at a time as fit in the buffer.*/
+	void putBytes(byte[] values, int from, int length) throws IOException{
+		while(length > 0){
+			need(1);
+			int n = Math.min(length, buffer.remaining());
+			buffer.put(values, from, n);
+			from += n;
+			length -= n;
+		}
+	}
+
+	int getInt() throws IOException{
+		need(4);
+		return buffer.getInt();
+	}
+
+	long getLong() throws IOException{
+		need(8);
+		return buffer.getLong();
+	}
+
+	float getFloat() throws IOException{
+		need(4);
+		return buffer.getFloat();
+	}
+
+	boolean getBoolean() throws IOException{
+		need(1);
+		return buffer.get() != 0;
+	}
+
+	/**Reads the given number of ints into the given array.*/
+	void getInts(int[] values, int from, int length) throws IOException{
+		while(length > 0){
+			need(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(values, from, n);
+			buffer.position(buffer.position() + n * 4);
+			from += n;
+			length -= n;
+		}
+	}
+
+	/**Reads the given number of chars into the given array.*/
+	void getChars(char[] values, int from, int length) throws IOException{
+		while(length > 0){
+			need(2);
+			int n = Math.min(length, buffer.remaining() / 2);
+			buffer.asCharBuffer().get(values, from, n);
+			buffer.position(buffer.position() + n * 2);
+			from += n;
+			length -= n;
+		}
+	}
+
+	/**Reads the given number of bytes into the given array.*/
+	void getBytes(byte[] values, int from, int length) throws IOException{
+		while(length > 0){
+			need(1);
+			int n = Math.min(length, buffer.remaining());
+			buffer.get(values, from, n);
+			from += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Writes the state of a stream of random numbers.
+	 */
+	void putRandom(RandomStream random) throws IOException{
+		putLong(random.getSeed());
+		putLong(random.getGamma());
+	}
+
+	/**
+	 * Reads back a stream of random numbers, in the state it was written in.
+	 */
+	RandomStream getRandom() throws IOException{
+		long seed = getLong();
+		return new RandomStream(seed, getLong());
+	}
+
+	/**
+	 * Writes out what is left in the buffer, if writing, and closes the file.
+	 */
+	@Override
+	public void close() throws IOException{
+		try{
+			if(writing)
+				drain();
+		}finally{
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package multiagent;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class indexes the positions of the agents on a uniform grid of square buckets,
+ * so that the agents near a location can be found without looking at every agent.
+ * <p> The agents of each bucket are kept in a doubly linked list stored in primitive arrays
+ * indexed by agent id, so moving an agent and querying are allocation-free.
+ * A query only visits the buckets overlapping the square around the location.
+ */
+final class SpatialIndex implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**side of a bucket, in cells*/
+	private final int bucketSize;
+	private final int bucketRows;
+	private final int bucketCols;
+
+	/**first agent of each bucket (0 means empty)*/
+	private final int[] head;
+
+	/**bucket, position and neighbours in the bucket list of each agent, indexed by id*/
+	private int[] bucket = new int[1];
+	private int[] row = new int[1];
+	private int[] col = new int[1];
+	private int[] next = new int[1];
+	private int[] prev = new int[1];
+
+	/**
+	 * Creates an empty index for a world of the given size.
+	 * @param height the number of rows of the world.
+	 * @param width the number of columns of the world.
+	 * @param bucketSize the side of a bucket, ideally the radius of the most frequent query.
+	 */
+	SpatialIndex(int height, int width, int bucketSize){
+		this.bucketSize = bucketSize;
+		this.bucketRows = (height + bucketSize - 1) / bucketSize;
+		this.bucketCols = (width + bucketSize - 1) / bucketSize;
+		this.head = new int[bucketRows * bucketCols];
+	}
+
+	/**
+	 * Removes every agent and prepares the index for agents with id from 1 to numAgents.
+	 */
+	void reset(int numAgents){
+		Arrays.fill(head, 0);
+		bucket = new int[numAgents + 1];
+		row = new int[numAgents + 1];
+		col = new int[numAgents + 1];
+		next = new int[numAgents + 1];
+		prev = new int[numAgents + 1];
+		Arrays.fill(bucket, -1);
+	}
+
+	/**
+	 * Sets the position of an agent, inserting it if needed.
+	 */
+	void move(int id, int r, int c){
+		int b = (r / bucketSize) * bucketCols + c / bucketSize;
+		row[id] = r;
+		col[id] = c;
+		if(b == bucket[id])
+			return;
+		if(bucket[id] >= 0)
+			unlink(id);
+		bucket[id] = b;
+		next[id] = head[b];
+		prev[id] = 0;
+		if(head[b] != 0)
+			prev[head[b]] = id;
+		head[b] = id;
+	}
+
+	private void unlink(int id){
+		if(prev[id] != 0)
+			next[prev[id]] = next[id];
+		else
+			head[bucket[id]] = next[id];
+		if(next[id] != 0)
+			prev[next[id]] = prev[id];
+	}
+
+	/**
+	 * Finds the agents whose distance from the given location is at most radius.
+	 * The ids are written in out, in no particular order, up to its length.
+	 * @return the number of agents found, which may exceed out.length.
+	 */
+	int query(int r, int c, int radius, int[] out){
+		int r2 = radius * radius;
+		int fromRow = Math.max(0, (r - radius) / bucketSize);
+		int toRow = Math.min(bucketRows - 1, (r + radius) / bucketSize);
+		int fromCol = Math.max(0, (c - radius) / bucketSize);
+		int toCol = Math.min(bucketCols - 1, (c + radius) / bucketSize);
+		int found = 0;
+		for(int br = fromRow; br <= toRow; br++){
+			for(int bc = fromCol; bc <= toCol; bc++){
+				for(int id = head[br * bucketCols + bc]; id != 0; id = next[id]){
+					int dr = row[id] - r;
+					int dc = col[id] - c;
+					if(dr * dr + dc * dc <= r2){
+						if(found < out.length)
+							out[found] = id;
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+}
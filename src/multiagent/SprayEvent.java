@@ -0,0 +1,26 @@
+package multiagent;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event emitted by World for every spray action (see DecisionEvent).
+ */
+@Name("multiagent.Spray")
+@Label("Spray")
+@Category({"Multiagent", "World"})
+@StackTrace(false)
+final class SprayEvent extends Event{
+
+	@Label("Agent")
+	int agent;
+
+	@Label("Row")
+	int row;
+
+	@Label("Column")
+	int col;
+
+	@Label("Weed Removed")
+	@Description("False if the cell had already been sprayed")
+	boolean removed;
+}
@@ -0,0 +1,132 @@
+package multiagent;
+
+import java.io.*;
+
+/**
+ * This class stamps the attractive potential of a weed on the cells around it.
+ * <p> The values of the stencil are computed once: the potential is worth peak on the weed
+ * and decreases by falloff per cell of distance from it, over a rectangle going from
+ * before cells above and to the left of the weed to after cells below and to the right.
+ * Stamping clips the rectangle to the world and writes the potentials row by row.
+ * <p> The new values are combined with the potentials already in the cells according to
+ * a Combine mode, so that the stamps of close weeds can either replace or merge with each other.
+ */
+public final class Stencil implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * How a stamped value is combined with the potential already in a cell.
+	 * <p> OVERWRITE: the stamped value replaces the potential.
+	 * <p> MAX: the larger of the two is kept.
+	 * <p> ADD_SATURATING: the two are added, the sum being limited to the largest potential a cell can hold.
+	 */
+	public static enum Combine{
+		OVERWRITE, MAX, ADD_SATURATING
+	}
+
+	/**The stencil used by default: the 10x10 neighbourhood of the weed, from 3 on the weed down by 0.5 per cell, overwriting.*/
+	public static final Stencil DEFAULT = new Stencil(5, 4, 3.0f, 0.5f, Combine.OVERWRITE);
+
+	private final int before;
+	private final int after;
+	private final int side;
+	private final float peak;
+	private final float falloff;
+	private final Combine combine;
+	/**values of the stencil, row by row, from offset (-before,-before)*/
+	private final float[] values;
+
+	/**
+	 * Creates a square stencil centred on the weed.
+	 * @param radius the number of cells on each side of the weed.
+	 * @param peak the potential on the weed.
+	 * @param falloff the decrease of the potential per cell of distance from the weed.
+	 * @param combine how the stamped values are combined with the potentials already in the cells.
+	 */
+	public Stencil(int radius, float peak, float falloff, Combine combine){
+		this(radius, radius, peak, falloff, combine);
+	}
+
+	/**
+	 * Creates a stencil.
+	 * @param before the number of cells above and to the left of the weed.
+	 * @param after the number of cells below and to the right of the weed.
+	 * @param peak the potential on the weed.
+	 * @param falloff the decrease of the potential per cell of distance from the weed.
+	 * @param combine how the stamped values are combined with the potentials already in the cells.
+	 */
+	public Stencil(int before, int after, float peak, float falloff, Combine combine){
+		if(before < 0 || after < 0)
+			throw new IllegalArgumentException("The extent of a stencil cannot be negative");
+		if(combine == null)
+			throw new NullPointerException("combine");
+		this.before = before;
+		this.after = after;
+		this.side = before + after + 1;
+		this.peak = peak;
+		this.falloff = falloff;
+		this.combine = combine;
+		this.values = new float[side * side];
+		for(int r = -before; r <= after; r++)
+			for(int c = -before; c <= after; c++)
+				values[(r + before) * side + c + before] = (float)(peak - falloff * Math.sqrt(r * r + c * c));
+	}
+
+	/**
+	 * Returns how the stamped values are combined with the potentials already in the cells.
+	 * @return the combine mode.
+	 */
+	public Combine getCombine(){
+		return combine;
+	}
+
+	/**
+	 * Writes the parameters of the stencil to a snapshot, read back by readFrom.
+	 */
+	void writeTo(Snapshot out) throws IOException{
+		out.putInt(before);
+		out.putInt(after);
+		out.putFloat(peak);
+		out.putFloat(falloff);
+		out.putInt(combine.ordinal());
+	}
+
+	/**
+	 * Reads back a stencil written by writeTo.
+	 */
+	static Stencil readFrom(Snapshot in) throws IOException{
+		int before = in.getInt();
+		int after = in.getInt();
+		float peak = in.getFloat();
+		float falloff = in.getFloat();
+		return new Stencil(before, after, peak, falloff, Combine.values()[in.getInt()]);
+	}
+
+	/**
+	 * Stamps the stencil on the given grid, centred on the given cell.
+	 */
+	void apply(Grid grid, int row, int col){
+		int fromRow = Math.max(-before, -row);
+		int toRow = Math.min(after, grid.height - 1 - row);
+		int fromCol = Math.max(-before, -col);
+		int toCol = Math.min(after, grid.width - 1 - col);
+		for(int r = fromRow; r <= toRow; r++){
+			int i = grid.index(row + r, col + fromCol);
+			int k = (r + before) * side + fromCol + before;
+			for(int c = fromCol; c <= toCol; c++, i++, k++){
+				float v = values[k];
+				switch(combine){
+					case MAX:
+						v = Math.max(v, grid.getAttract(i));
+						break;
+					case ADD_SATURATING:
+						v = Math.max(-Grid.MAX_POTENTIAL, Math.min(Grid.MAX_POTENTIAL, v + grid.getAttract(i)));
+						break;
+					default:
+						break;
+				}
+				grid.setAttract(i, v);
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package multiagent;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event emitted for every step of a simulation, i.e. one step of one agent
+ * or one round of all the agents (see AgentSim.step() and ActorSim.tick()).
+ * Its duration is the wall time of the step, potential decay included (see DecisionEvent).
+ */
+@Name("multiagent.Step")
+@Label("Simulation Step")
+@Category({"Multiagent", "Simulation"})
+@StackTrace(false)
+final class StepEvent extends Event{
+
+	@Label("Agent Steps")
+	@Description("Number of agent steps performed, one per agent in a round")
+	int agentSteps;
+
+	@Label("Steps Done")
+	@Description("Number of agent steps performed since the start of the simulation")
+	long stepsDone;
+
+	@Label("Weeds Remaining")
+	int weedsRemaining;
+
+	@Label("Open Tasks")
+	int openTasks;
+
+	@Label("Over")
+	boolean over;
+}
@@ -5,6 +5,9 @@ import java.io.*;
 /**
  * This class represents a task in the world and is associated to a cell.
  * The task status is defined according to an Enum.
+ * <p> Once a task is assigned to a Cell of the World (see Cell.setTask), its status
+ * and the agent that accomplished it are stored by the world itself and the task
+ * becomes a view of the task of that cell.
  * 
  * @version 1.0
  * @author Albani Dario
@@ -37,6 +40,11 @@ public class Task implements Serializable{
 	 * The agent that accomplished the task
 	 */
 	private int completedByAgent;
+
+	/**
+	 * True if the task has been assigned to its cell: status and agent are then kept by the cell.
+	 */
+	private boolean attached;
 	
 	/**
 	 * Constructor for the Task.
@@ -46,27 +54,41 @@ public class Task implements Serializable{
 	    this.cell = cell;
 		this.status = status;
 	}
+
+	/**
+	 * Creates a view of the task assigned to the given cell.
+	 */
+	Task(Cell cell){
+		this.cell = cell;
+		this.attached = true;
+	}
 	
 	/**
 	 * Return if the task is completed
 	 */
 	public boolean isDone(){
-		return this.status == Status.DONE;
+		return getStatus() == Status.DONE;
 	}
 	
 	/**
 	 * A task is marked as complete if the associated Cell has been visited or sprayed (according to the exercise)
 	 */
 	public void markAsComplete(int agent){
-		this.status = Status.DONE;
-		this.completedByAgent = agent;
+		if(attached){
+			cell.grid.setCompletedBy(cell.index, agent);
+			cell.grid.setTaskStatus(cell.index, Status.DONE);
+		}
+		else{
+			this.status = Status.DONE;
+			this.completedByAgent = agent;
+		}
 	}
 	
 	/**
 	 * Return the agent that accomplished the task
 	 */
 	public int getCompletedByAgent(){
-		return this.completedByAgent;
+		return attached ? cell.grid.getCompletedBy(cell.index) : this.completedByAgent;
 	}
 
 	public Cell getCell() {
@@ -76,15 +98,43 @@ public class Task implements Serializable{
 	public void setCell(Cell cell) {
 		if(cell==null)
 			throw new NullPointerException("Trying to assing a null cell to a Task");
-		this.cell = cell;
-		this.cell.task = this;
+		cell.setTask(this);
 	}
 
 	public Status getStatus() {
-		return status;
+		return attached ? cell.grid.getTaskStatus(cell.index) : status;
 	}
 
 	public void setStatus(Status status) {
-		this.status = status;
+		if(attached)
+			cell.grid.setTaskStatus(cell.index, status);
+		else
+			this.status = status;
+	}
+
+	/**
+	 * Makes this task the view of the task of the given cell, whose state has already been written.
+	 */
+	void attach(Cell cell){
+		this.cell = cell;
+		this.attached = true;
+	}
+
+	/**
+	 * Two tasks assigned to a cell are equal if they are the task of the same cell.
+	 */
+	@Override
+	public boolean equals(Object o){
+		if(o == this)
+			return true;
+		if(!(o instanceof Task))
+			return false;
+		Task t = (Task) o;
+		return attached && t.attached && cell.grid == t.cell.grid && cell.index == t.cell.index;
+	}
+
+	@Override
+	public int hashCode(){
+		return attached ? cell.index : System.identityHashCode(this);
 	}
 }
@@ -0,0 +1,104 @@
+package multiagent;
+
+import java.io.*;
+
+/**
+ * This class keeps track of the cells of the world whose task is not done yet.
+ * <p> Whether the task of a cell is open is read from its status, packed in the flags of the cell,
+ * and the Grid counts the open tasks of each tile; the ledger keeps their total, so that counting
+ * the open tasks is O(1) and nothing is stored per cell, however many tasks are open.
+ * The open tasks are numbered by tile, then by index within the tile. The i-th one is found by
+ * skipping the tiles before it; the position of the last one returned is remembered, so that
+ * iterating the open tasks in order costs O(1) amortised per task.
+ * The ledger is updated by the Grid whenever the status of a task changes.
+ */
+class TaskLedger implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**holds the status of the cells and the number of open tasks of each tile*/
+	private final Grid grid;
+
+	/**number of open tasks*/
+	private int size;
+
+	/**last task returned by get(): its tile, the slot of the first open task of the tile,
+	 * its slot (-1 if none, or if a task changed since) and its cell*/
+	private int lastTile;
+	private int lastStart;
+	private int lastSlot = -1;
+	private int lastCell;
+
+	/**
+	 * Creates a ledger over the given grid, counting its open tasks.
+	 */
+	TaskLedger(Grid grid){
+		this.grid = grid;
+		recount();
+	}
+
+	/**
+	 * Adds the given number, negative if tasks were closed, to the open tasks.
+	 */
+	void changed(int delta){
+		size += delta;
+		lastSlot = -1;
+	}
+
+	/**
+	 * Counts the open tasks again from the counts of the tiles.
+	 */
+	void recount(){
+		int n = 0;
+		for(int t = 0; t < grid.tileCount(); t++)
+			n += grid.openCount(t);
+		size = n;
+		lastSlot = -1;
+	}
+
+	/**
+	 * Returns the number of open tasks.
+	 * @return the number of open tasks.
+	 */
+	int size(){
+		return size;
+	}
+
+	/**
+	 * Returns the index of the cell in the given slot. Slots go from 0 to size()-1 and
+	 * are reassigned when a task is opened or closed.
+	 * @param s the slot.
+	 * @return the index of the open cell in the given slot.
+	 */
+	int get(int s){
+		if(s >= size)
+			throw new IndexOutOfBoundsException("Slot " + s + " of " + size);
+		if(lastSlot < 0 || s < lastSlot){
+			//riparto dalla prima tile
+			lastTile = 0;
+			lastStart = 0;
+			lastSlot = -1;
+		}
+		int t = lastTile;
+		int start = lastStart;
+		while(start + grid.openCount(t) <= s){
+			start += grid.openCount(t);
+			t++;
+		}
+		int slot = start - 1;
+		int cell = -1;
+		if(t == lastTile && lastSlot >= start){
+			//proseguo nella stessa tile dall'ultimo task restituito
+			slot = lastSlot;
+			cell = lastCell;
+		}
+		while(slot < s){
+			cell = grid.nextOpenTask(t, cell);
+			slot++;
+		}
+		lastTile = t;
+		lastStart = start;
+		lastSlot = s;
+		lastCell = cell;
+		return cell;
+	}
+}
@@ -0,0 +1,458 @@
+package multiagent;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * This class reads back a log written by TrajectoryRecorder and reconstructs the recorded run
+ * at any of its steps.
+ * <p> The reader keeps the state of the run at the current step: the position and the
+ * last action of every agent and the cells that still have weeds. next() decodes the following
+ * agent step, with the sprays it executed, and applies it to that state; blocks are read and
+ * inflated one at a time.
+ * <p> When the log is opened the headers of its blocks are scanned, without inflating them, to
+ * build the index of the keyframes. seek() finds the last keyframe before the requested step by
+ * binary search, loads it and decodes the agent steps that follow, so that any step is reached
+ * in O(log keyframes) plus at most one keyframe interval of agent steps.
+ * <p> The steps decoded since the last keyframe are kept in a log (agent, move, actions and
+ * weeds sprayed), so that moving back and forth within them costs O(1) per step: previous()
+ * only reloads a keyframe when it crosses one, and then decodes the whole interval before it
+ * once, which makes stepping backwards O(1) amortised.
+ */
+public final class TrajectoryReader implements Closeable{
+
+	private static final Action[] ACTIONS = Action.values();
+
+	private final FileChannel channel;
+	private final int height;
+	private final int width;
+	private final long firstStep;
+	private final int agents;
+	/**weed cells at the start of the recording*/
+	private final BitSet initialWeeds = new BitSet();
+
+	/**step and file position of each keyframe, by increasing step*/
+	private long[] keyframeSteps = new long[16];
+	private long[] keyframeOffsets = new long[16];
+	private int keyframes;
+	/**step after the last agent step of the log*/
+	private long lastStep;
+
+	/**state at the current step: position and last action of each agent, by id, and weeds left*/
+	private final int[] rows;
+	private final int[] cols;
+	private final Action[] actions;
+	private final BitSet weeds = new BitSet();
+	private long step;
+	/**agent of the last step read*/
+	private int lastAgent;
+
+	/**ints per agent step in the log: agent, row and column moved by, action and previous action
+	 * (ordinal plus one, 0 if none), previous agent and end of its sprays in sprayed*/
+	private static final int ENTRY = 7;
+	/**log of the agent steps decoded since the last keyframe was loaded; the first applied
+	 * of them are applied to the state, the others have been undone and are redone by next()*/
+	private int[] log = new int[ENTRY * 64];
+	private int logged;
+	private int applied;
+	/**cells whose weeds were sprayed by the steps of the log, in order; the first sprayCount are applied*/
+	private int[] sprayed = new int[64];
+	private int sprayCount;
+
+	/**block being decoded*/
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(TrajectoryRecorder.BLOCK_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+	private byte[] compressed = new byte[TrajectoryRecorder.BLOCK];
+	private byte[] raw = new byte[TrajectoryRecorder.BLOCK];
+	private final Inflater inflater = new Inflater();
+	private int length;
+	private int pos;
+
+	private TrajectoryReader(FileChannel channel) throws IOException{
+		this.channel = channel;
+		ByteBuffer head = read(4 * 6 + 8);
+		if(head.getInt() != TrajectoryRecorder.MAGIC)
+			throw new IOException("Not a trajectory log");
+		int version = head.getInt();
+		if(version != TrajectoryRecorder.VERSION)
+			throw new IOException("Trajectory log of version " + version + ", not " + TrajectoryRecorder.VERSION);
+		height = head.getInt();
+		width = head.getInt();
+		firstStep = head.getLong();
+		agents = head.getInt();
+		int n = head.getInt();
+		ByteBuffer cells = read(4 * n);
+		for(int k = 0; k < n; k++)
+			initialWeeds.set(cells.getInt());
+		rows = new int[agents + 1];
+		cols = new int[agents + 1];
+		actions = new Action[agents + 1];
+		index();
+		if(keyframes == 0)
+			throw new EOFException("Trajectory log without keyframes");
+		load(0);
+	}
+
+	/**
+	 * Opens the log in the given file and indexes its keyframes.
+	 * @param file the file of the log.
+	 * @return the reader, at the step the recording started at.
+	 * @throws IOException if the file cannot be read or does not hold a trajectory log.
+	 */
+	public static TrajectoryReader open(File file) throws IOException{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			return new TrajectoryReader(channel);
+		}catch(IOException | RuntimeException e){
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Scans the headers of the blocks, from the current position of the channel,
+	 * listing the keyframes and the last step. A block cut short ends the log.
+	 */
+	private void index() throws IOException{
+		long offset = channel.position();
+		long size = channel.size();
+		lastStep = firstStep;
+		while(offset + TrajectoryRecorder.BLOCK_HEADER <= size){
+			blockHeader.clear();
+			channel.read(blockHeader, offset);
+			blockHeader.flip();
+			byte type = blockHeader.get();
+			long first = blockHeader.getLong();
+			int steps = blockHeader.getInt();
+			blockHeader.getInt();
+			int compressedLength = blockHeader.getInt();
+			long next = offset + TrajectoryRecorder.BLOCK_HEADER + compressedLength;
+			if(next > size)
+				break;
+			if(type == TrajectoryRecorder.KEYFRAME){
+				if(keyframes == keyframeSteps.length){
+					keyframeSteps = Arrays.copyOf(keyframeSteps, keyframes * 2);
+					keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframes * 2);
+				}
+				keyframeSteps[keyframes] = first;
+				keyframeOffsets[keyframes] = offset;
+				keyframes++;
+			}
+			lastStep = Math.max(lastStep, first + steps);
+			offset = next;
+		}
+	}
+
+	private ByteBuffer read(int bytes) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining())
+			if(channel.read(buffer) < 0)
+				throw new EOFException("Truncated trajectory log");
+	}
+
+	/**
+	 * Reads and inflates the next block. A keyframe is loaded at once, as if it had been decoded.
+	 * @return false if there are no more blocks.
+	 */
+	private boolean nextBlock() throws IOException{
+		if(channel.size() - channel.position() < TrajectoryRecorder.BLOCK_HEADER)
+			return false;
+		blockHeader.clear();
+		readFully(blockHeader);
+		blockHeader.flip();
+		byte type = blockHeader.get();
+		long first = blockHeader.getLong();
+		blockHeader.getInt();
+		int rawLength = blockHeader.getInt();
+		int compressedLength = blockHeader.getInt();
+		if(channel.size() - channel.position() < compressedLength)
+			return false;
+		if(compressed.length < compressedLength)
+			compressed = new byte[compressedLength];
+		if(raw.length < rawLength)
+			raw = new byte[rawLength];
+		readFully(ByteBuffer.wrap(compressed, 0, compressedLength));
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+		try{
+			length = inflater.inflate(raw, 0, rawLength);
+		}catch(DataFormatException e){
+			throw new IOException("Corrupted trajectory log", e);
+		}
+		if(length != rawLength)
+			throw new IOException("Corrupted trajectory log");
+		pos = 0;
+		if(type == TrajectoryRecorder.KEYFRAME)
+			loadKeyframe(first);
+		return true;
+	}
+
+	/**
+	 * Loads the state held by the keyframe just inflated, taken at the given step.
+	 */
+	private void loadKeyframe(long first){
+		logged = applied = 0;
+		sprayCount = 0;
+		step = first;
+		lastAgent = getVarInt();
+		for(int id = 1; id <= agents; id++){
+			rows[id] = getVarInt();
+			cols[id] = getVarInt();
+			int act = getByte();
+			actions[id] = act == 0 ? null : ACTIONS[act - 1];
+		}
+		weeds.clear();
+		int n = getVarInt();
+		int cell = 0;
+		for(int k = 0; k < n; k++){
+			cell += getVarInt();
+			weeds.set(cell);
+		}
+		pos = length;
+	}
+
+	private int getByte(){
+		return raw[pos++] & 0xFF;
+	}
+
+	private int getVarInt(){
+		int v = 0;
+		for(int shift = 0; ; shift += 7){
+			int b = getByte();
+			v |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return v;
+		}
+	}
+
+	private static int unzigzag(int v){
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Reads the next agent step, with its sprays, and applies it to the state.
+	 * @return false if the log is over.
+	 * @throws IOException if the log cannot be read.
+	 */
+	public boolean next() throws IOException{
+		if(applied < logged){
+			redo();
+			return true;
+		}
+		while(true){
+			if(pos == length && !nextBlock())
+				return false;
+			if(pos == length)
+				continue;
+			int code = getByte();
+			if(code == TrajectoryRecorder.SPRAY){
+				int cell = getVarInt();
+				if(getByte() != 0 && weeds.get(cell)){
+					weeds.clear(cell);
+					if(sprayCount == sprayed.length)
+						sprayed = Arrays.copyOf(sprayed, sprayCount * 2);
+					sprayed[sprayCount++] = cell;
+				}
+				continue;
+			}
+			Action act;
+			int dr;
+			int dc;
+			if(code == TrajectoryRecorder.FAR){
+				act = ACTIONS[getByte()];
+				dr = unzigzag(getVarInt());
+				dc = unzigzag(getVarInt());
+			}
+			else{
+				act = ACTIONS[code / TrajectoryRecorder.MOVES];
+				int move = code % TrajectoryRecorder.MOVES;
+				dr = move / 3 - 1;
+				dc = move % 3 - 1;
+			}
+			int agent = lastAgent % agents + 1 + unzigzag(getVarInt());
+			if(logged * ENTRY == log.length)
+				log = Arrays.copyOf(log, log.length * 2);
+			int e = logged * ENTRY;
+			log[e] = agent;
+			log[e + 1] = dr;
+			log[e + 2] = dc;
+			log[e + 3] = act.ordinal() + 1;
+			log[e + 4] = actions[agent] == null ? 0 : actions[agent].ordinal() + 1;
+			log[e + 5] = lastAgent;
+			log[e + 6] = sprayCount;
+			applied = ++logged;
+			lastAgent = agent;
+			rows[agent] += dr;
+			cols[agent] += dc;
+			actions[agent] = act;
+			step++;
+			return true;
+		}
+	}
+
+	/**
+	 * Undoes the last agent step applied from the log, with its sprays.
+	 */
+	private void undo(){
+		int e = --applied * ENTRY;
+		int agent = log[e];
+		rows[agent] -= log[e + 1];
+		cols[agent] -= log[e + 2];
+		actions[agent] = log[e + 4] == 0 ? null : ACTIONS[log[e + 4] - 1];
+		lastAgent = log[e + 5];
+		int from = applied == 0 ? 0 : log[e - ENTRY + 6];
+		while(sprayCount > from)
+			weeds.set(sprayed[--sprayCount]);
+		step--;
+	}
+
+	/**
+	 * Applies again the first agent step of the log that was undone, with its sprays.
+	 */
+	private void redo(){
+		int e = applied++ * ENTRY;
+		while(sprayCount < log[e + 6])
+			weeds.clear(sprayed[sprayCount++]);
+		int agent = log[e];
+		rows[agent] += log[e + 1];
+		cols[agent] += log[e + 2];
+		actions[agent] = ACTIONS[log[e + 3] - 1];
+		lastAgent = agent;
+		step++;
+	}
+
+	/**
+	 * Moves to the given step, clamped to the steps of the log. Moving forward within the same
+	 * keyframe interval only decodes the steps in between, moving back within the steps decoded
+	 * since the last keyframe only undoes them, otherwise the nearest keyframe before the step
+	 * is loaded first.
+	 * @param target the step.
+	 * @throws IOException if the log cannot be read.
+	 */
+	public void seek(long target) throws IOException{
+		target = Math.max(firstStep, Math.min(lastStep, target));
+		int k = Arrays.binarySearch(keyframeSteps, 0, keyframes, target);
+		if(k < 0)
+			k = -k - 2;
+		//torno indietro annullando i passi decodificati, finche' il registro li copre
+		while(step > target && applied > 0)
+			undo();
+		//ricarico solo se torno indietro o se c'e' un keyframe piu' vicino
+		if(target < step || keyframeSteps[k] > step)
+			load(k);
+		while(step < target && next())
+			;
+	}
+
+	/**
+	 * Loads the k-th keyframe.
+	 */
+	private void load(int k) throws IOException{
+		channel.position(keyframeOffsets[k]);
+		pos = length = 0;
+		if(!nextBlock())
+			throw new EOFException("Truncated trajectory log");
+	}
+
+	/**
+	 * Moves back by one agent step, if the current step is not the first one.
+	 * This takes O(1) amortised time, see seek().
+	 * @return false if the current step is the first one.
+	 * @throws IOException if the log cannot be read.
+	 */
+	public boolean previous() throws IOException{
+		if(step == firstStep)
+			return false;
+		seek(step - 1);
+		return true;
+	}
+
+	/**Returns the number of rows of the world.*/
+	public int getHeight(){
+		return height;
+	}
+
+	/**Returns the number of columns of the world.*/
+	public int getWidth(){
+		return width;
+	}
+
+	/**Returns the number of agents.*/
+	public int getAgents(){
+		return agents;
+	}
+
+	/**Returns the step the recording started at.*/
+	public long getFirstStep(){
+		return firstStep;
+	}
+
+	/**Returns the step after the last agent step of the log.*/
+	public long getLastStep(){
+		return lastStep;
+	}
+
+	/**Returns the number of keyframes of the log.*/
+	public int getKeyframes(){
+		return keyframes;
+	}
+
+	/**
+	 * Returns the current step, that is the number of agent steps performed
+	 * by the recorded simulation when it was in the state held by this reader.
+	 */
+	public long getStep(){
+		return step;
+	}
+
+	/**Returns the id of the agent of the last step read.*/
+	public int getAgent(){
+		return lastAgent;
+	}
+
+	/**Returns the row of the given agent at the current step.*/
+	public int getRow(int id){
+		return rows[id];
+	}
+
+	/**Returns the column of the given agent at the current step.*/
+	public int getCol(int id){
+		return cols[id];
+	}
+
+	/**Returns the last action of the given agent, null if it has not acted yet.*/
+	public Action getAction(int id){
+		return actions[id];
+	}
+
+	/**Returns true if the given cell still has weeds at the current step.*/
+	public boolean isWeed(int row, int col){
+		return weeds.get(row * width + col);
+	}
+
+	/**Returns true if the weed of the given cell has been sprayed since the start of the recording.*/
+	public boolean isSprayed(int row, int col){
+		int cell = row * width + col;
+		return initialWeeds.get(cell) && !weeds.get(cell);
+	}
+
+	/**Returns the number of cells that still have weeds at the current step.*/
+	public int getWeedRemained(){
+		return weeds.cardinality();
+	}
+
+	@Override
+	public void close() throws IOException{
+		inflater.end();
+		channel.close();
+	}
+}
@@ -0,0 +1,382 @@
+package multiagent;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * This class records the trajectory of a simulation, step by step, in an append-only log.
+ * <p> The log starts with a header holding the size of the world, the step the recording starts
+ * at, the number of agents and the weed cells. Then come the agent steps, in the order
+ * they are executed, each one encoded in a few bytes: the action and the move of the agent,
+ * as offsets of at most one cell along rows and columns, plus the difference between the id
+ * of the agent and the id that follows the previous one, which is zero both when stepping one
+ * agent at a time and by rounds. Sprays are recorded as they are executed by the world.
+ * <p> At the start and then every keyframe interval, a keyframe holding the full state (position
+ * and last action of every agent, weeds left) is written, so that a reader can jump to
+ * any step by decoding at most one interval of agent steps (see TrajectoryReader).
+ * <p> Records are appended to a block of BLOCK bytes; full blocks are handed to a background
+ * thread that compresses them with Deflater and writes them through a FileChannel. At most BLOCKS
+ * blocks exist, so that memory stays bounded: if the disk cannot keep up, the simulation waits
+ * for a block to be written. Each block starts with its type, the step of its first record, the
+ * number of agent steps it holds and its raw and compressed length, so that the log can be
+ * indexed by reading the headers of the blocks only.
+ * <p> The recorder is fed by the thread that executes the actions (see AgentSim.setRecorder)
+ * and must not be shared among simulators.
+ */
+public final class TrajectoryRecorder implements Closeable{
+
+	static final int MAGIC = 0x4D415354;
+	static final int VERSION = 2;
+
+	/**types of block*/
+	static final byte DELTAS = 0;
+	static final byte KEYFRAME = 1;
+
+	/**agent steps between two keyframes, by default*/
+	public static final int KEYFRAME_INTERVAL = 10000;
+
+	/**codes of a record: action*MOVES+move for a move of at most one cell, FAR and SPRAY otherwise*/
+	static final int MOVES = 9;
+	static final int FAR = Action.values().length * MOVES;
+	static final int SPRAY = FAR + 1;
+
+	/**bytes of a block of agent steps before compression, and largest record*/
+	static final int BLOCK = 1 << 16;
+	private static final int MAX_RECORD = 32;
+	/**number of blocks, being filled, queued or written*/
+	private static final int BLOCKS = 4;
+	/**bytes of the header of a block: type, first step, agent steps, raw length, compressed length*/
+	static final int BLOCK_HEADER = 1 + 8 + 4 + 4 + 4;
+
+	private final FileChannel channel;
+	private final World world;
+	private final int width;
+	private final int agents;
+	private final int keyframeInterval;
+
+	/**blocks free to be filled, and full blocks waiting to be written*/
+	private final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(BLOCKS);
+	private final BlockingQueue<Block> full = new ArrayBlockingQueue<Block>(BLOCKS + 1);
+	/**block handed to the writer to stop it*/
+	private final Block end = new Block();
+	private final Thread writer;
+	private volatile IOException failure;
+
+	/**block being filled and number of agent steps recorded so far*/
+	private Block block;
+	private long step;
+	/**step at which the next keyframe is written*/
+	private long nextKeyframe;
+	/**id of the last agent recorded and last action of each agent, by id, as ordinal plus one*/
+	private int lastAgent;
+	private final byte[] actions;
+	private boolean closed;
+
+	/**
+	 * A block of records, with its type, the step of its first record and the number of agent steps.
+	 * Keyframes may need more than BLOCK bytes, so the data grows as needed.
+	 */
+	private static final class Block{
+		byte[] data = new byte[BLOCK];
+		int length;
+		byte type;
+		long firstStep;
+		int steps;
+	}
+
+	private TrajectoryRecorder(FileChannel channel, World world, int agents, long firstStep, int keyframeInterval){
+		this.channel = channel;
+		this.world = world;
+		this.width = world.getWidth();
+		this.agents = agents;
+		this.keyframeInterval = keyframeInterval;
+		this.actions = new byte[agents + 1];
+		for(int b = 0; b < BLOCKS; b++)
+			free.add(new Block());
+		this.step = firstStep;
+		this.lastAgent = agents;
+		block = free.poll();
+		start(DELTAS);
+		writer = new Thread(new Runnable(){
+			public void run(){
+				write();
+			}
+		}, "trajectory-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Creates a log in the given file, overwriting it, with a keyframe every KEYFRAME_INTERVAL agent steps.
+	 * @see #create(File, AgentSim, int)
+	 */
+	public static TrajectoryRecorder create(File file, AgentSim sim) throws IOException{
+		return create(file, sim, KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Creates a log in the given file, overwriting it, and writes its header and first keyframe
+	 * from the current state of the given simulator. The recorder must then be set with sim.setRecorder.
+	 * @param file the file of the log.
+	 * @param sim the simulator to record.
+	 * @param keyframeInterval the number of agent steps between two keyframes.
+	 * @return the recorder.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static TrajectoryRecorder create(File file, AgentSim sim, int keyframeInterval) throws IOException{
+		if(keyframeInterval <= 0)
+			throw new IllegalArgumentException("The keyframe interval must be positive: " + keyframeInterval);
+		World world = sim.world;
+		int n = sim.agents.size();
+		int weeds = world.getWeedRemained();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		TrajectoryRecorder recorder;
+		try{
+			ByteBuffer header = ByteBuffer.allocate(4 * (6 + weeds) + 8).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION);
+			header.putInt(world.getHeight()).putInt(world.getWidth());
+			header.putLong(sim.getStepsDone());
+			header.putInt(n);
+			header.putInt(weeds);
+			for(int k = 0; k < weeds; k++){
+				Cell c = world.getWeed(k);
+				header.putInt(c.getRow() * world.getWidth() + c.getCol());
+			}
+			header.flip();
+			while(header.hasRemaining())
+				channel.write(header);
+			recorder = new TrajectoryRecorder(channel, world, n, sim.getStepsDone(), keyframeInterval);
+		}catch(IOException | RuntimeException e){
+			channel.close();
+			throw e;
+		}
+		for(Agent a : sim.agents)
+			recorder.actions[a.getId()] = (byte)(a.nextAction().ordinal() + 1);
+		recorder.keyframe();
+		return recorder;
+	}
+
+	/**
+	 * Records one agent step.
+	 * @param agent the id of the agent.
+	 * @param act the action executed.
+	 * @param from the cell of the agent before the action.
+	 * @param to the cell of the agent after the action.
+	 */
+	void step(int agent, Action act, Cell from, Cell to) throws IOException{
+		room();
+		int dr = to.getRow() - from.getRow();
+		int dc = to.getCol() - from.getCol();
+		if(dr >= -1 && dr <= 1 && dc >= -1 && dc <= 1)
+			putByte(act.ordinal() * MOVES + (dr + 1) * 3 + dc + 1);
+		else{
+			putByte(FAR);
+			putByte(act.ordinal());
+			putVarInt(zigzag(dr));
+			putVarInt(zigzag(dc));
+		}
+		//di solito l'agente e' quello che segue il precedente: la differenza e' 0
+		putVarInt(zigzag(agent - (lastAgent % agents + 1)));
+		lastAgent = agent;
+		actions[agent] = (byte)(act.ordinal() + 1);
+		block.steps++;
+		step++;
+		if(step >= nextKeyframe)
+			keyframe();
+	}
+
+	/**
+	 * Records a spray, which belongs to the agent step recorded next.
+	 * @param agent the id of the agent.
+	 * @param cell the cell sprayed.
+	 * @param removed true if the cell had a weed.
+	 */
+	void spray(int agent, Cell cell, boolean removed) throws IOException{
+		room();
+		putByte(SPRAY);
+		putVarInt(cell.getRow() * width + cell.getCol());
+		putByte(removed ? 1 : 0);
+	}
+
+	/**
+	 * Writes a keyframe with the current state: the last agent recorded, position and last action
+	 * of every agent, then the weed cells in increasing order, as differences from the previous one.
+	 */
+	private void keyframe() throws IOException{
+		if(block.length > 0){
+			ship();
+			block = take();
+		}
+		start(KEYFRAME);
+		putVarInt(lastAgent);
+		for(int id = 1; id <= agents; id++){
+			grow(16);
+			Cell c = world.getAgentPosition(id);
+			putVarInt(c.getRow());
+			putVarInt(c.getCol());
+			putByte(actions[id]);
+		}
+		int n = world.getWeedRemained();
+		int[] weeds = new int[n];
+		for(int k = 0; k < n; k++){
+			Cell c = world.getWeed(k);
+			weeds[k] = c.getRow() * width + c.getCol();
+		}
+		Arrays.sort(weeds);
+		grow(5);
+		putVarInt(n);
+		int previous = 0;
+		for(int k = 0; k < n; k++){
+			grow(5);
+			putVarInt(weeds[k] - previous);
+			previous = weeds[k];
+		}
+		ship();
+		block = take();
+		start(DELTAS);
+		nextKeyframe = step + keyframeInterval;
+	}
+
+	/**
+	 * Returns the number of agent steps recorded, plus the step the recording started at.
+	 * @return the step the next record belongs to.
+	 */
+	public long getStep(){
+		return step;
+	}
+
+	static int zigzag(int v){
+		return (v << 1) ^ (v >> 31);
+	}
+
+	private void putByte(int b){
+		block.data[block.length++] = (byte) b;
+	}
+
+	private void putVarInt(int v){
+		while((v & ~0x7F) != 0){
+			putByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		putByte(v);
+	}
+
+	/**Makes room for the given number of bytes in the current block, growing it.*/
+	private void grow(int bytes){
+		if(block.length + bytes > block.data.length)
+			block.data = Arrays.copyOf(block.data, Math.max(block.length + bytes, block.data.length * 2));
+	}
+
+	/**Starts filling the current block with records of the given type.*/
+	private void start(byte type){
+		block.type = type;
+		block.length = 0;
+		block.firstStep = step;
+		block.steps = 0;
+	}
+
+	/**
+	 * Makes room for a record, handing the current block to the writer if it is nearly full.
+	 */
+	private void room() throws IOException{
+		if(closed)
+			throw new IOException("The recorder is closed");
+		if(block.length + MAX_RECORD <= BLOCK)
+			return;
+		ship();
+		block = take();
+		start(DELTAS);
+	}
+
+	/**Hands the current block to the writer.*/
+	private void ship() throws IOException{
+		IOException e = failure;
+		if(e != null)
+			throw e;
+		full.add(block);
+	}
+
+	/**Returns a free block, waiting for the writer if there is none.*/
+	private Block take() throws IOException{
+		try{
+			return free.take();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the trajectory writer");
+		}
+	}
+
+	/**
+	 * Body of the writer thread: compresses and writes the full blocks until the end block arrives.
+	 */
+	private void write(){
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed = new byte[BLOCK + BLOCK / 8 + 64];
+		ByteBuffer head = ByteBuffer.allocate(BLOCK_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		try{
+			for(Block b = full.take(); b != end; b = full.take()){
+				try{
+					if(failure == null){
+						if(compressed.length < b.length + b.length / 8 + 64)
+							compressed = new byte[b.length + b.length / 8 + 64];
+						deflater.reset();
+						deflater.setInput(b.data, 0, b.length);
+						deflater.finish();
+						int length = deflater.deflate(compressed);
+						while(!deflater.finished()){
+							//il blocco compresso non ci sta: ingrandisco il buffer e continuo
+							if(length == compressed.length)
+								compressed = Arrays.copyOf(compressed, compressed.length * 2);
+							length += deflater.deflate(compressed, length, compressed.length - length);
+						}
+						head.clear();
+						head.put(b.type).putLong(b.firstStep).putInt(b.steps).putInt(b.length).putInt(length);
+						head.flip();
+						ByteBuffer[] out = {head, ByteBuffer.wrap(compressed, 0, length)};
+						while(out[1].hasRemaining())
+							channel.write(out);
+					}
+				}catch(IOException e){
+					failure = e;
+				}finally{
+					free.add(b);
+				}
+			}
+		}catch(InterruptedException e){
+			failure = new InterruptedIOException("Trajectory writer interrupted");
+		}finally{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Writes the records still in memory and closes the log, waiting for the writer thread.
+	 * @throws IOException if the log could not be written.
+	 */
+	@Override
+	public void close() throws IOException{
+		if(closed)
+			return;
+		closed = true;
+		if(failure == null && block.length > 0)
+			full.add(block);
+		full.add(end);
+		try{
+			writer.join();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the trajectory log");
+		}finally{
+			channel.close();
+		}
+		IOException e = failure;
+		if(e != null)
+			throw e;
+	}
+}
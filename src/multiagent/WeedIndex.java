@@ -0,0 +1,86 @@
+package multiagent;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class keeps track of the cells of the world that still have weeds.
+ * <p> The indexes of the weed cells are stored in a dense array and the slot of each of them
+ * in a SlotMap, so that counting, adding and removing a weed are O(1), the weeds left
+ * can be enumerated in time proportional to their number and one of them can be drawn at random.
+ * Since weeds are few, both are kept on the heap and take no memory for the other cells;
+ * they are not saved with the storage, but listed again from the WEED flags when it is reopened.
+ * The index is updated by the Grid whenever the WEED flag of a cell changes.
+ */
+class WeedIndex implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	/**the indexes of the weed cells, in the first size slots*/
+	private int[] cells = new int[16];
+
+	/**number of weed cells*/
+	private int size;
+
+	/**slot of each weed cell*/
+	private final SlotMap slots = new SlotMap();
+
+	/**
+	 * Adds a cell to the weeds, if not already there.
+	 */
+	void add(int cell){
+		if(slots.get(cell, -1) >= 0)
+			return;
+		if(size == cells.length)
+			cells = Arrays.copyOf(cells, size * 2);
+		slots.put(cell, size);
+		cells[size++] = cell;
+	}
+
+	/**
+	 * Lists again the given weed cells, in the given order, as when a storage is reopened.
+	 * @param found the weed cells, in its first n positions.
+	 * @param n the number of weed cells.
+	 */
+	void relist(int[] found, int n){
+		cells = new int[Math.max(16, n)];
+		size = 0;
+		slots.clear();
+		for(int k = 0; k < n; k++)
+			add(found[k]);
+	}
+
+	/**
+	 * Removes a cell from the weeds, if it is there.
+	 * The last weed cell takes its slot.
+	 */
+	void remove(int cell){
+		int s = slots.remove(cell, -1);
+		if(s < 0)
+			return;
+		int last = cells[--size];
+		if(last != cell){
+			cells[s] = last;
+			slots.put(last, s);
+		}
+	}
+
+	/**
+	 * Returns the number of weed cells.
+	 * @return the number of weed cells.
+	 */
+	int size(){
+		return size;
+	}
+
+	/**
+	 * Returns the index of the weed cell in the given slot. Slots go from 0 to size()-1 and
+	 * are reassigned when a weed is removed.
+	 * @param s the slot.
+	 * @return the index of the weed cell in the given slot.
+	 */
+	int get(int s){
+		if(s >= size)
+			throw new IndexOutOfBoundsException("Slot " + s + " of " + size);
+		return cells[s];
+	}
+}
@@ -1,5 +1,6 @@
 package multiagent;
 
+import java.io.*;
 import java.util.*;
 
 /**
@@ -20,26 +21,156 @@ public class World{
 	private boolean use_attraction;
 	private boolean use_repulse;
 	private boolean use_flock;
+	/**radius within which the agents bid for the weeds discovered by others, 0 if there are no auctions*/
+	private int auctionRadius;
+	/**weights of the candidate moves ranked by potential, see setRankWeights*/
+	private int[] rankWeights = {6, 2, 1};
+	/**stencil of the attractive potential of a weed, see setAttractStencil*/
+	private Stencil attractStencil = Stencil.DEFAULT;
+
+	/**per-step decrease of the attractive and of the repulsive potential*/
+	static final float ATTRACT_DECAY = 0.006f;
+	static final float REPULSE_DECAY = 0.001f;
+
+	/**true to print the progress messages of the worlds on the standard output;
+	 * turned off by BatchRunner, whose results go there*/
+	static volatile boolean verbose = true;
+
 	/**stores the state of the world*/
-	private Cell[][] map;
+	private Grid grid;
 
 	/**stores the cell of the agents*/
 	private List<Cell>agentsCells = new ArrayList<Cell>();
 	
 	/**stores the agents*/
 	private List<Agent>agents = new ArrayList<Agent>();
-	
-	private int num_weed_remained = 0;
+
+	/**
+	 * Occupancy of the cells, indexed by agent id: the grid index of the cell of each agent
+	 * and the next agent, by increasing id, in the same cell (0 if none).
+	 * The first agent of each cell is stored by the grid.
+	 */
+	private int[] agentIndex = new int[1];
+	private int[] nextInCell = new int[1];
+
+	/**side of the buckets of the spatial index, equal to the flocking radius*/
+	static final int NEIGHBOUR_BUCKET = 4;
+	/**stores the agents positions by area, to find the agents near a location*/
+	private SpatialIndex neighbours;
+	/**tables of the cells an agent can move to*/
+	private Neighbourhood moves;
+
+	/**stream of random numbers used to generate the world*/
+	private RandomStream random;
+
+	/**log of the trajectory to which the sprays are appended, null if not recording*/
+	private TrajectoryRecorder recorder;
+
 	/**
 	 * Simple constructor creating a world of size nxm
 	 */
 	public World(int m, int n) {
+		this(m, n, new RandomStream(System.nanoTime()));
+	}
+
+	/**
+	 * Constructor creating a world of size nxm that draws its random numbers from the given stream
+	 */
+	public World(int m, int n, RandomStream random) {
+		this.random = random;
+		height=m;
+		width=n;
+		grid = new Grid(m,n);
+		neighbours = new SpatialIndex(m,n,NEIGHBOUR_BUCKET);
+		moves = new Neighbourhood(grid.stride);
+	}
+
+	/**
+	 * Constructor creating a world of size nxm whose cells are kept off-heap in the given file,
+	 * for fields larger than the heap. If the file already holds a field of this size, the field
+	 * is reopened with its weeds, tasks and potentials (see isReopened()), otherwise it is created.
+	 * The field is saved by flush() and close().
+	 * @throws IOException if the file cannot be mapped or holds a field of a different size.
+	 */
+	public World(int m, int n, RandomStream random, File field) throws IOException {
+		this.random = random;
 		height=m;
 		width=n;
-		map = new Cell[m][n];
-		for (int r=0;r<m;r++)
-			for (int c=0;c<n;c++)
-				map[r][c] = new Cell(r,c);
+		grid = new Grid(MappedStorage.open(field, m, n, Grid.metaLength(m, n)));
+		neighbours = new SpatialIndex(m,n,NEIGHBOUR_BUCKET);
+		moves = new Neighbourhood(grid.stride);
+	}
+
+	/**
+	 * Constructor reading back a world written by writeTo, with its cells on the heap.
+	 * The agents are not part of the world: they must be added again by addAgents.
+	 * @throws IOException if the snapshot cannot be read.
+	 */
+	World(Snapshot in) throws IOException {
+		height=in.getInt();
+		width=in.getInt();
+		use_attraction=in.getBoolean();
+		use_repulse=in.getBoolean();
+		use_flock=in.getBoolean();
+		auctionRadius=in.getInt();
+		rankWeights=new int[in.getInt()];
+		in.getInts(rankWeights, 0, rankWeights.length);
+		attractStencil=Stencil.readFrom(in);
+		random=in.getRandom();
+		grid=Grid.readFrom(in, height, width);
+		//le celle degli agenti salvati tornano libere, addAgents le occupa di nuovo
+		int n=in.getInt();
+		for(int id=1;id<=n;id++)
+			grid.setOccupant(in.getInt(), 0);
+		neighbours = new SpatialIndex(height,width,NEIGHBOUR_BUCKET);
+		moves = new Neighbourhood(grid.stride);
+	}
+
+	/**
+	 * Writes the state of this world to a snapshot: settings, random stream, cells and the cells of the agents.
+	 * @throws IOException if the snapshot cannot be written.
+	 */
+	void writeTo(Snapshot out) throws IOException {
+		out.putInt(height);
+		out.putInt(width);
+		out.putBoolean(use_attraction);
+		out.putBoolean(use_repulse);
+		out.putBoolean(use_flock);
+		out.putInt(auctionRadius);
+		out.putInt(rankWeights.length);
+		out.putInts(rankWeights, 0, rankWeights.length);
+		attractStencil.writeTo(out);
+		out.putRandom(random);
+		grid.writeTo(out);
+		out.putInt(agentsCells.size());
+		for(int id=1;id<=agentsCells.size();id++)
+			out.putInt(agentIndex[id]);
+	}
+
+	/**
+	 * Returns true if the cells of this world have been reopened from a saved field
+	 * rather than created empty.
+	 * @return true if the field has been reopened.
+	 */
+	public boolean isReopened(){
+		return !grid.isNew();
+	}
+
+	/**
+	 * Saves the field, if this world is kept in a file.
+	 * @throws IOException if the field cannot be written.
+	 */
+	public void flush() throws IOException {
+		grid.flush();
+	}
+
+	/**
+	 * Saves the field and releases the file, if this world is kept in a file.
+	 * The world must not be used afterwards.
+	 * @throws IOException if the field cannot be written.
+	 */
+	public void close() throws IOException {
+		grid.close();
 	}
 
 	/**Returns the number of rows of the world.
@@ -61,36 +192,79 @@ public class World{
 	 * Sets all the tasks in the world as to visit.
 	 */
 	public void setUpForCoverage(){
-		Cell cell;
-		
-		for(int i = 0; i < height; i++){
-			for(int j = 0; j < width; j++){
-				cell = map[i][j];
-				Task task = new Task(cell, Task.Status.VISIT);
-				cell.setTask(task);
+		//le tile sono inizializzate in parallelo
+		grid.forEachTile(new Grid.TileVisitor(){
+			public void visit(int tile, int fromRow, int toRow, int fromCol, int toCol){
+				for(int i = fromRow; i < toRow; i++){
+					int index = grid.index(i, fromCol);
+					for(int j = fromCol; j < toCol; j++, index++){
+						grid.setCompletedBy(index, 0);
+						grid.putTaskStatus(index, Task.Status.VISIT);
+					}
+				}
 			}
-		}
+		});
+		grid.rebuildOpenTasks();
 	}
 	
+	/**
+	 * Returns the number of cells with the given flag set, from the counts kept by the tiles.
+	 * @param flag one of Grid.VISITED, Grid.WEED and Grid.SPRAYED.
+	 */
+	int countCells(int flag){
+		return grid.count(flag);
+	}
+
+	/**
+	 * Returns the number of visited cells associated to the given agent, from the counters kept by the grid.
+	 * @param agent the id of the agent.
+	 */
+	int countCellsVisitedBy(int agent){
+		return grid.visitedBy(agent);
+	}
+
+	/**
+	 * Returns the number of cells that still have weeds, in O(1).
+	 * @return the number of weed cells.
+	 */
 	public int getWeedRemained() {
-		return num_weed_remained;
+		return grid.weeds().size();
+	}
+
+	/**
+	 * Returns one of the cells that still have weeds. Together with getWeedRemained(),
+	 * allows to enumerate the weeds in time proportional to their number; the order
+	 * changes when a weed is sprayed.
+	 * @param k the position of the weed, from 0 to getWeedRemained()-1.
+	 * @return the k-th weed cell.
+	 */
+	public Cell getWeed(int k) {
+		int index = grid.weeds().get(k);
+		return new Cell(grid, index, grid.row(index), grid.col(index));
+	}
+
+	/**
+	 * Returns a cell that still has weeds, drawn uniformly at random.
+	 * @param random the stream from which the cell is drawn.
+	 * @return a weed cell, or null if there are no weeds left.
+	 */
+	public Cell getRandomWeed(RandomStream random) {
+		int n = grid.weeds().size();
+		return n == 0 ? null : getWeed(random.nextInt(n));
 	}
 	/**
 	 * Create a task for each cell that present weeds and assign the task to it.
 	 * Sets all the task in the world as to spray
 	 */
 	public void setUpForWeed(){
-		Cell cell;
-		
-		for(int i = 0; i < height; i++){
-			for(int j = 0; j < width; j++){
-				cell = map[i][j];
-				if(cell.isWeed()){
-					Task task = new Task(cell, Task.Status.SPRAY);
-					cell.setTask(task);					
-				}
-			}
+		//solo le celle con erba, dall'indice delle erbe
+		WeedIndex weeds = grid.weeds();
+		for(int k = 0; k < weeds.size(); k++){
+			int index = weeds.get(k);
+			grid.setCompletedBy(index, 0);
+			grid.putTaskStatus(index, Task.Status.SPRAY);
 		}
+		grid.rebuildOpenTasks();
 	}
 
 	/**
@@ -100,26 +274,27 @@ public class World{
 	public void addWeedCells(int n) {
 		if(n>=height*width)
 			throw new IllegalArgumentException("Too many weeds cells");
-		System.out.print("inserisco n weed " + n + "\n");
-		this.num_weed_remained = n;
+		if(verbose)
+			System.out.print("inserisco n weed " + n + "\n");
 		int inserite = 0;
 		for(int i=n;i>0;i--){
 			if(inserite == n) {
 				return;
 			}
-			int row=(int)(height*Math.random());
-			int col=(int)(width*Math.random());
+			int row=random.nextInt(height);
+			int col=random.nextInt(width);
 
 			//le inserisco a gruppi
 			for(int j=0;j<4;j++) {
 				if(inserite == n) {
 					return;
 				}
-				int next_row = 1 + (int)(Math.random() * ((3 - 1) + 1));
-				int next_col = 1 + (int)(Math.random() * ((3 - 1) + 1));
+				int next_row = 1 + random.nextInt((3 - 1) + 1);
+				int next_col = 1 + random.nextInt((3 - 1) + 1);
 				if(this.isValid(row + next_row, col+next_col)) {
-					if(!map[row+next_row][col+next_col].isWeed()) {
-						map[row+next_row][col+next_col].setWeed(true);
+					int index = grid.index(row+next_row, col+next_col);
+					if(!grid.is(index, Grid.WEED)) {
+						grid.set(index, Grid.WEED, true);
 						i--;
 						inserite++;
 					}
@@ -131,9 +306,9 @@ public class World{
 					return;
 			}
 
-			if(!map[row][col].isWeed()){
+			if(!grid.is(grid.index(row,col), Grid.WEED)){
 				inserite++;
-				map[row][col].setWeed(true);
+				grid.set(grid.index(row,col), Grid.WEED, true);
 			}
 			else
 				i++;
@@ -145,11 +320,18 @@ public class World{
 	 * @param agentList the list of the agents, ordered for id from 1 to agentList.size().
 	 */
 	public void addAgents(List<Agent>agentList){
+		for(int id=1;id<=agentsCells.size();id++)
+			grid.setOccupant(agentIndex[id], 0);
 		this.agents = agentList;
 		
 		agentsCells = new ArrayList<Cell>(agentList.size());
-		for(Agent a : agentList)
+		agentIndex = new int[agentList.size()+1];
+		nextInCell = new int[agentList.size()+1];
+		neighbours.reset(agentList.size());
+		for(Agent a : agentList){
 			agentsCells.add(a.getPosition());
+			occupy(agentsCells.size(), a.getPosition());
+		}
 	}
 
 	// ********************************************* Action Execution ***************************
@@ -210,7 +392,8 @@ public class World{
 	 * @return the task
 	 */
 	private Task executeActionPublishNextTask(int agId, Task agTask){
-		System.out.print("TODO: the world is telling you to assign a task\n");
+		if(verbose)
+			System.out.print("TODO: the world is telling you to assign a task\n");
 		return null;
 	}
 	
@@ -223,7 +406,8 @@ public class World{
 	 * @return the task
 	 */
 	private Task executeActionCheck(int agId, Task agTask){
-		System.out.print("TODO: you should check the cell\n");
+		if(verbose)
+			System.out.print("TODO: you should check the cell\n");
 		return null;
 	}
 	
@@ -237,11 +421,28 @@ public class World{
 	 * @return the task
 	 */
 	private Task executeActionSpray(int agId, Task agTask){
+		SprayEvent event = new SprayEvent();
+		event.begin();
 		//elimino l'erba
-		if(agTask.getCell().isWeed()) {
+		boolean removed = agTask.getCell().isWeed();
+		if(removed) {
 			agTask.getCell().setWeed(false);
 			agTask.getCell().setSprayed(true);
-			this.num_weed_remained--;
+			agTask.markAsComplete(agId);
+		}
+		if(recorder != null) {
+			try {
+				recorder.spray(agId, agTask.getCell(), removed);
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		if(event.shouldCommit()) {
+			event.agent = agId;
+			event.row = agTask.getCell().getRow();
+			event.col = agTask.getCell().getCol();
+			event.removed = removed;
+			event.commit();
 		}
 		return null;
 	}
@@ -255,6 +456,44 @@ public class World{
      * =============================================================================
 	 */
 
+	/**
+	 * Contractor of each spray task awarded by an auction and not released yet,
+	 * by grid index of the cell (see Agent.assignTasks(List, Task)).
+	 */
+	private final HashMap<Integer,Integer> contractors = new HashMap<Integer,Integer>();
+
+	/**
+	 * Sets the radius within which the agents bid for the weeds discovered by other agents.
+	 * @param radius the radius, 0 to disable the auctions.
+	 */
+	public void setAuctionRadius(int radius){
+		this.auctionRadius = Math.max(radius, 0);
+	}
+
+	/**Returns the radius of the auctions, 0 if they are disabled.*/
+	public int getAuctionRadius(){
+		return auctionRadius;
+	}
+
+	/**
+	 * Returns the agent the given task has been awarded to.
+	 * @return the id of the contractor, 0 if the task has not been awarded.
+	 */
+	public int getContractor(Task task){
+		Integer agent = contractors.get(task.getCell().index);
+		return agent == null ? 0 : agent;
+	}
+
+	/**Records that the given task has been awarded to the given agent.*/
+	void award(Task task, int agent){
+		contractors.put(task.getCell().index, agent);
+	}
+
+	/**Records that the given task is no longer awarded to anyone.*/
+	void release(Task task){
+		contractors.remove(task.getCell().index);
+	}
+
 	// ************************************************* Selectors to access the world components *******************
 
 	/**Returns the number of agents in the world.
@@ -264,6 +503,11 @@ public class World{
 		return agentsCells.size();
 	}
 
+	/**Returns the grid holding the state of the cells.*/
+	Grid grid(){
+		return grid;
+	}
+
 	/**
 	 * Returns the Cell with given coordinates.
 	 * @param row the row of the Cell.
@@ -271,7 +515,86 @@ public class World{
 	 * @return the Cell with given coordinates.
 	 */
 	public Cell getCell(int row, int col){
-		return map[row][col];
+		return new Cell(grid, grid.index(row,col), row, col);
+	}
+
+	/**
+	 * Returns the Cell with given coordinates, or null if they fall outside the grid.
+	 * Only coordinates at most one step outside the grid are allowed: this is enough
+	 * to look at the neighbours of any cell and costs a single flag test.
+	 * @param row the row of the Cell.
+	 * @param col the column of the Cell.
+	 * @return the Cell with given coordinates, null if it is outside the grid.
+	 */
+	public Cell getCellIfValid(int row, int col){
+		int index = grid.index(row,col);
+		if(grid.isBorder(index))
+			return null;
+		return new Cell(grid, index, row, col);
+	}
+
+	/**
+	 * Finds the free cells among the three ahead of the given cell in the given direction
+	 * (see Neighbourhood), best first.
+	 * @param out where the grid indexes of the free cells are written, at least three long.
+	 * @return the number of free cells found.
+	 */
+	int freeCellsAhead(int row, int col, int dirRow, int dirCol, int[] out){
+		int from = grid.index(row, col);
+		int heading = Neighbourhood.heading(dirRow, dirCol);
+		int found = 0;
+		for(int k = 0; k < Neighbourhood.AHEAD_CELLS; k++){
+			int i = from + moves.ahead(heading, k);
+			if(!grid.isBorder(i) && grid.getOccupant(i) == 0)
+				out[found++] = i;
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the neighbours of the given cell that are inside the world, free or not.
+	 * @param out where the grid indexes of the neighbours are written, at least eight long.
+	 * @return the number of neighbours found.
+	 */
+	int cellsAround(int row, int col, int[] out){
+		int from = grid.index(row, col);
+		int found = 0;
+		for(int k = 0; k < moves.aroundCount(); k++){
+			int i = from + moves.around(k);
+			if(!grid.isBorder(i))
+				out[found++] = i;
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the neighbours of the given cell that have weeds and no agent on them.
+	 * @param out where the grid indexes of the cells are written, at least eight long.
+	 * @return the number of cells found.
+	 */
+	int weedsAround(int row, int col, int[] out){
+		int from = grid.index(row, col);
+		int found = 0;
+		for(int k = 0; k < moves.aroundCount(); k++){
+			int i = from + moves.around(k);
+			if(grid.is(i, Grid.WEED) && grid.getOccupant(i) == 0)
+				out[found++] = i;
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the attractive minus the repulsive potential of the cell with the given grid index.
+	 */
+	double potentialAt(int index){
+		return (double) grid.getAttract(index) - grid.getRepulse(index);
+	}
+
+	/**
+	 * Returns the cell with the given grid index.
+	 */
+	Cell cellAt(int index){
+		return new Cell(grid, index, grid.row(index), grid.col(index));
 	}
 
 	/**
@@ -299,12 +622,7 @@ public class World{
     * @return list of all the id's of the agents in Location loc.
     */
     public List<Integer> getAgents(Cell cell){
-        java.util.Iterator<Cell> it = agentsCells.listIterator();
-        List<Integer> res = new LinkedList<Integer>();
-        for(int id=1;it.hasNext();id++)
-            if(it.next().equals(cell))
-                res.add(id);
-        return res;
+        return getAgents(cell.getRow(), cell.getCol());
     }
     
     /**
@@ -314,8 +632,53 @@ public class World{
      * @return list of all the id's of the agents in Location (row,col).
      */
      public List<Integer> getAgents(int row, int col){
-         return getAgents(new Cell(row,col));
+         List<Integer> res = new LinkedList<Integer>();
+         for(int id=getFirstAgentAt(row,col);id!=-1;id=getNextAgentInCell(id))
+             res.add(id);
+         return res;
      }
+
+	/**
+	 * Returns the agent with the lowest id in the Location with given coordinates.
+	 * Together with getNextAgentInCell(int) it allows to iterate over the agents
+	 * in a Location without allocating anything.
+	 * @param row the row of the Location to check.
+	 * @param col the column of the Location to check.
+	 * @return the id of the first agent in Location (row,col), -1 if there is no agent.
+	 */
+	public int getFirstAgentAt(int row, int col){
+		int id = grid.getOccupant(grid.index(row,col));
+		return id == 0 ? -1 : id;
+	}
+
+	/**
+	 * Returns the agent that follows the given one, by increasing id, in the same Location.
+	 * @param id the id of an agent.
+	 * @return the id of the next agent in the same Location, -1 if there is no agent.
+	 */
+	public int getNextAgentInCell(int id){
+		int next = nextInCell[id];
+		return next == 0 ? -1 : next;
+	}
+
+	/**
+	 * Returns true if there is at least one agent in the given Location.
+	 * @param row the row of the Location to check.
+	 * @param col the column of the Location to check.
+	 * @return true if the Location (row,col) is occupied.
+	 */
+	public boolean isOccupied(int row, int col){
+		return grid.getOccupant(grid.index(row,col)) != 0;
+	}
+
+	/**
+	 * Returns true if there is at least one agent in the given Location.
+	 * @param cell the Location to check.
+	 * @return true if the Location is occupied.
+	 */
+	public boolean isOccupied(Cell cell){
+		return isOccupied(cell.getRow(), cell.getCol());
+	}
      
 	/**
 	 * Sets an Agent position.
@@ -323,7 +686,61 @@ public class World{
 	 * @param c the Cell corresponding to the new Agent position in the world.
 	 */
 	public void setAgentPosition(int id,Cell c){
+		vacate(id);
 		agentsCells.set(id-1,c);
+		occupy(id,c);
+	}
+
+	/**
+	 * Finds the agents whose distance from the given Location is at most radius,
+	 * looking only at the agents in the surrounding area.
+	 * The ids are written in out, in no particular order, up to its length:
+	 * if the returned number is larger, the query has to be repeated with a larger array.
+	 * @param row the row of the Location.
+	 * @param col the column of the Location.
+	 * @param radius the maximum distance.
+	 * @param out the array filled with the ids of the agents found.
+	 * @return the number of agents found.
+	 */
+	public int getAgentsNear(int row, int col, int radius, int[] out){
+		return neighbours.query(row, col, radius, out);
+	}
+
+	/**
+	 * Adds an agent to the occupants of the given cell, keeping them sorted by id.
+	 */
+	private void occupy(int id, Cell c){
+		int index = grid.index(c.getRow(), c.getCol());
+		agentIndex[id] = index;
+		neighbours.move(id, c.getRow(), c.getCol());
+		int head = grid.getOccupant(index);
+		if(head == 0 || head > id){
+			nextInCell[id] = head;
+			grid.setOccupant(index, id);
+			return;
+		}
+		int prev = head;
+		while(nextInCell[prev] != 0 && nextInCell[prev] < id)
+			prev = nextInCell[prev];
+		nextInCell[id] = nextInCell[prev];
+		nextInCell[prev] = id;
+	}
+
+	/**
+	 * Removes an agent from the occupants of its cell.
+	 */
+	private void vacate(int id){
+		int index = agentIndex[id];
+		int head = grid.getOccupant(index);
+		if(head == id)
+			grid.setOccupant(index, nextInCell[id]);
+		else {
+			int prev = head;
+			while(nextInCell[prev] != id)
+				prev = nextInCell[prev];
+			nextInCell[prev] = nextInCell[id];
+		}
+		nextInCell[id] = 0;
 	}
 
 	/**
@@ -336,23 +753,70 @@ public class World{
 	}
 
 	/**
-	 * Scan the world to find all the uncompleted task. (e.g. non visited cells, untreated cells)
+	 * Collects all the uncompleted task. (e.g. non visited cells, untreated cells)
+	 * The tasks are taken from the ledger of open tasks, in no particular order.
+	 * Prefer getOpenTaskCount() and getOpenTask(int) when a copy is not needed.
 	 *  
 	 * @return all the tasks not accomplished in the current execution
 	 */
 	public LinkedList<Task> getUncompletedTask(){
 		LinkedList<Task> uncTasks = new LinkedList<Task>();
-		
-		for(int i = 0; i < this.height; i++){
-			for (int j = 0; j < this.width; j++){
-				if(!this.map[i][j].getTask().isDone()){
-					uncTasks.add(this.map[i][j].getTask());
-				}
-			}
-		} 
+		for(int i = 0; i < getOpenTaskCount(); i++)
+			uncTasks.add(getOpenTask(i));
 		return uncTasks;
 	}
 
+	/**
+	 * Returns the number of tasks not accomplished yet, in constant time.
+	 * @return the number of open tasks.
+	 */
+	public int getOpenTaskCount(){
+		return grid.openTasks().size();
+	}
+
+	/**
+	 * Returns the i-th task not accomplished yet, with 0 <= i < getOpenTaskCount().
+	 * The order of the open tasks changes whenever a task is completed.
+	 * @param i the index of the open task.
+	 * @return the i-th open task.
+	 */
+	public Task getOpenTask(int i){
+		int index = grid.openTasks().get(i);
+		return new Task(new Cell(grid, index, grid.row(index), grid.col(index)));
+	}
+
+	/**
+	 * Decays the repulsive and the attractive potential of every cell by one step.
+	 * Called once per simulation step by whoever drives the simulation.
+	 * The decay is computed lazily when a potential is read, so this costs O(1).
+	 */
+	public void decayPotentials(){
+		grid.tick(1);
+	}
+
+	/**
+	 * Decays the repulsive and the attractive potential of every cell by the given number of steps.
+	 * @param steps the number of steps.
+	 */
+	public void decayPotentials(int steps){
+		grid.tick(steps);
+	}
+
+	/**
+	 * Returns the stream of random numbers of this world.
+	 * @return the stream of random numbers of this world.
+	 */
+	public RandomStream getRandom(){
+		return this.random;
+	}
+
+	/**
+	 * Sets the log of the trajectory to which the sprays are appended, see AgentSim.setRecorder.
+	 */
+	void setRecorder(TrajectoryRecorder recorder){
+		this.recorder = recorder;
+	}
+
 	public List<Agent> getAllAgents(){
 		return this.agents;
 	}
@@ -364,6 +828,32 @@ public class World{
 	public boolean isAttractEnable() {
 		return this.use_attraction;
 	}
+
+	/**
+	 * Sets the stencil with which the attractive potential of a weed is stamped around it.
+	 * @param stencil the stencil, Stencil.DEFAULT by default.
+	 */
+	public void setAttractStencil(Stencil stencil) {
+		if(stencil == null)
+			throw new NullPointerException("stencil");
+		this.attractStencil = stencil;
+	}
+
+	/**
+	 * Returns the stencil with which the attractive potential of a weed is stamped around it.
+	 * @return the stencil.
+	 */
+	public Stencil getAttractStencil() {
+		return attractStencil;
+	}
+
+	/**
+	 * Stamps the attractive potential of a weed around the given cell.
+	 * @param cell the cell of the weed.
+	 */
+	public void stampAttract(Cell cell) {
+		attractStencil.apply(grid, cell.getRow(), cell.getCol());
+	}
 	//per settare il potenziale repulsivo
 	public void useRepulse(boolean val) {
 		this.use_repulse = val;
@@ -381,6 +871,31 @@ public class World{
 		return this.use_flock;
 	}
 
+	/**
+	 * Sets the weights used to choose among candidate moves ranked by potential, when the
+	 * repulsive potential is enabled: the best cell has weight weights[0], the second
+	 * weights[1] and so on, the last weight applying to all the remaining ranks.
+	 * The default is 6, 2, 1.
+	 * @param weights the positive weights by rank.
+	 */
+	public void setRankWeights(int... weights) {
+		if(weights.length == 0)
+			throw new IllegalArgumentException("At least one rank weight is needed");
+		for(int w : weights)
+			if(w <= 0)
+				throw new IllegalArgumentException("Rank weights must be positive: " + w);
+		this.rankWeights = weights.clone();
+	}
+
+	/**
+	 * Returns the weight of the candidate move with the given rank.
+	 * @param rank the rank, 0 being the cell with the highest potential.
+	 * @return the weight of the rank.
+	 */
+	public int getRankWeight(int rank) {
+		return rankWeights[Math.min(rank, rankWeights.length - 1)];
+	}
+
 	// ************************************************ DCOP Central Agent ***************************/
 
 	/**
@@ -0,0 +1,326 @@
+package multiagent;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * This class keeps the picture of the world in a BufferedImage and updates it incrementally,
+ * redrawing only the cells whose look changed since the previous frame (see WorldPanel).
+ * <p> The look of a cell is summed up by its colour, an index in PALETTE, and by the agents in
+ * it. The colours last drawn are kept by cell: a live world is rescanned only in the tiles of
+ * its grid whose version changed since the image last scanned them, and in the tiles that still
+ * held potentials, whose bands fade without the tile being written. The versions seen are kept
+ * by the image, so that any number of images can follow the same grid. A replay is rescanned
+ * whole, since it is only a bit test per cell. The agents are followed by id, so that only the cells they left or
+ * entered are redrawn, and their labels are drawn from a cache of images keyed by the label.
+ */
+final class WorldImage{
+
+	/**Colours of the cells: free, weed, sprayed, the bands of the attractive and of the repulsive potential.*/
+	private static final Color[] PALETTE = {
+		Color.WHITE,
+		Color.GREEN,
+		new Color(102,51,0),
+		new Color(0,0,255),
+		new Color(60,60,255),
+		new Color(88,88,255),
+		new Color(100,100,255),
+		new Color(160,160,255),
+		new Color(255,0,0),
+		new Color(255,40,40),
+		new Color(255,70,70),
+		new Color(255,105,105),
+		new Color(255,130,130),
+		new Color(255,166,166),
+		new Color(255,208,208),
+	};
+	private static final byte FREE = 0;
+	private static final byte WEED = 1;
+	private static final byte SPRAYED = 2;
+	/**first colour of a potential band*/
+	private static final byte BAND = 3;
+
+	/**labels kept in the cache before the least recently used is dropped*/
+	private static final int GLYPHS = 1024;
+	/**smallest cell, in pixels, on which the ids of the agents are written*/
+	private static final int LABELLED = 8;
+
+	private final int height;
+	private final int width;
+	private final int dim;
+	private final Font font;
+	private final BufferedImage image;
+	private final Graphics2D graphics;
+
+	/**colour last drawn in each cell, by row*width+col, -1 if not drawn yet*/
+	private final byte[] colours;
+	/**true for the tiles that held a potential band when last scanned*/
+	private boolean[] fading;
+	/**version of each tile of the grid when last scanned*/
+	private int[] scanned;
+
+	/**agents as last drawn: cell of each agent, by id, first agent of each cell and next agent in the same cell*/
+	private int[] drawnAt = new int[1];
+	private final int[] firstAgent;
+	private int[] nextAgent = new int[1];
+	/**cells to redraw because agents left or entered them*/
+	private int[] touched = new int[16];
+	private int touchedCount;
+
+	private final Map<String,BufferedImage> glyphs = new LinkedHashMap<String,BufferedImage>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,BufferedImage> eldest){
+			return size() > GLYPHS;
+		}
+	};
+	private final Font[] fonts = new Font[16];
+	private final StringBuilder label = new StringBuilder();
+
+	/**
+	 * Creates a blank image of the world.
+	 * @param height the number of rows of the world.
+	 * @param width the number of columns of the world.
+	 * @param dim the side of a cell, in pixels.
+	 * @param font the font the labels of the agents are derived from.
+	 */
+	WorldImage(int height, int width, int dim, Font font){
+		this.height = height;
+		this.width = width;
+		this.dim = dim;
+		this.font = font;
+		image = new BufferedImage(width * dim, height * dim, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+		colours = new byte[height * width];
+		Arrays.fill(colours, (byte)-1);
+		firstAgent = new int[height * width];
+	}
+
+	/**Returns the image, as of the last update.*/
+	BufferedImage getImage(){
+		return image;
+	}
+
+	/**
+	 * Returns the colour of a cell that is neither a weed nor sprayed.
+	 * @param attract the attractive potential of the cell.
+	 * @param repulse the repulsive potential of the cell.
+	 */
+	static byte band(double attract, float repulse){
+		//potenziale attrattivo, differenti gradazioni di colore
+		if(attract <= 3.0f && attract > 2.5f) return BAND;
+		if(attract <= 2.5f && attract > 2.0f) return BAND + 1;
+		if(attract <= 2.0f && attract > 1.5f) return BAND + 2;
+		if(attract <= 1.5f && attract > 1.0f) return BAND + 3;
+		if(attract <= 1.0f && attract > 0.5f) return BAND + 4;
+		//potenziale repulsivo, differenti gradazioni di colore
+		if(repulse <= 1.0f && repulse > 0.9f) return BAND + 5;
+		if(repulse <= 0.9f && repulse > 0.8f) return BAND + 6;
+		if(repulse <= 0.8f && repulse > 0.6f) return BAND + 7;
+		if(repulse <= 0.6f && repulse > 0.4f) return BAND + 8;
+		if(repulse <= 0.4f && repulse > 0.3f) return BAND + 9;
+		if(repulse <= 0.3f && repulse > 0.2f) return BAND + 10;
+		if(repulse <= 0.2f && repulse > 0.1f) return BAND + 11;
+		return FREE;
+	}
+
+	/**
+	 * Brings the image up to date with the given world.
+	 */
+	void update(World world){
+		Grid grid = world.grid();
+		int tiles = grid.tileCount();
+		if(fading == null){
+			//al primo frame disegno tutte le celle
+			fading = new boolean[tiles];
+			Arrays.fill(fading, true);
+			scanned = new int[tiles];
+		}
+		int agents = world.getNumAgents();
+		reserve(agents);
+		for(int id = 1; id <= agents; id++){
+			Cell cell = world.getAgentPosition(id);
+			place(id, cell.getRow() * width + cell.getCol());
+		}
+		int tileCols = (width + Grid.TILE - 1) / Grid.TILE;
+		for(int t = 0; t < tiles; t++){
+			int version = grid.version(t);
+			if(version == scanned[t] && !fading[t])
+				continue;
+			scanned[t] = version;
+			boolean potentials = false;
+			int fromRow = (t / tileCols) * Grid.TILE;
+			int fromCol = (t % tileCols) * Grid.TILE;
+			int toRow = Math.min(fromRow + Grid.TILE, height);
+			int toCol = Math.min(fromCol + Grid.TILE, width);
+			for(int r = fromRow; r < toRow; r++){
+				int i = grid.index(r, fromCol);
+				for(int c = fromCol; c < toCol; c++, i++){
+					byte colour;
+					if(grid.is(i, Grid.WEED))
+						colour = WEED;
+					else if(grid.is(i, Grid.SPRAYED))
+						colour = SPRAYED;
+					else{
+						colour = band(grid.getAttract(i), grid.getRepulse(i));
+						potentials |= colour != FREE;
+					}
+					paint(r * width + c, colour);
+				}
+			}
+			fading[t] = potentials;
+		}
+		paintTouched();
+	}
+
+	/**
+	 * Brings the image up to date with the current step of the given replay.
+	 * Potentials are not recorded, so free cells are white.
+	 */
+	void update(TrajectoryReader replay){
+		int agents = replay.getAgents();
+		reserve(agents);
+		for(int id = 1; id <= agents; id++)
+			place(id, replay.getRow(id) * width + replay.getCol(id));
+		for(int r = 0, cell = 0; r < height; r++){
+			for(int c = 0; c < width; c++, cell++){
+				byte colour = replay.isWeed(r, c) ? WEED : replay.isSprayed(r, c) ? SPRAYED : FREE;
+				paint(cell, colour);
+			}
+		}
+		paintTouched();
+	}
+
+	/**
+	 * Makes room for the given number of agents.
+	 */
+	private void reserve(int agents){
+		if(drawnAt.length > agents)
+			return;
+		int old = drawnAt.length;
+		drawnAt = Arrays.copyOf(drawnAt, agents + 1);
+		nextAgent = Arrays.copyOf(nextAgent, agents + 1);
+		Arrays.fill(drawnAt, old, agents + 1, -1);
+	}
+
+	/**
+	 * Moves an agent to the given cell, if it is not there yet,
+	 * keeping the agents of each cell by increasing id as World does.
+	 */
+	private void place(int id, int cell){
+		int old = drawnAt[id];
+		if(old == cell)
+			return;
+		if(old >= 0){
+			int head = firstAgent[old];
+			if(head == id)
+				firstAgent[old] = nextAgent[id];
+			else{
+				int prev = head;
+				while(nextAgent[prev] != id)
+					prev = nextAgent[prev];
+				nextAgent[prev] = nextAgent[id];
+			}
+			touch(old);
+		}
+		int head = firstAgent[cell];
+		if(head == 0 || head > id){
+			nextAgent[id] = head;
+			firstAgent[cell] = id;
+		}
+		else{
+			int prev = head;
+			while(nextAgent[prev] != 0 && nextAgent[prev] < id)
+				prev = nextAgent[prev];
+			nextAgent[id] = nextAgent[prev];
+			nextAgent[prev] = id;
+		}
+		drawnAt[id] = cell;
+		touch(cell);
+	}
+
+	private void touch(int cell){
+		if(touchedCount == touched.length)
+			touched = Arrays.copyOf(touched, touchedCount * 2);
+		touched[touchedCount++] = cell;
+	}
+
+	/**
+	 * Redraws the cells agents left or entered, unless they have been redrawn already.
+	 */
+	private void paintTouched(){
+		for(int k = 0; k < touchedCount; k++){
+			int cell = touched[k];
+			if(colours[cell] >= 0)
+				draw(cell);
+		}
+		touchedCount = 0;
+	}
+
+	/**
+	 * Draws a cell with the given colour, if its colour changed.
+	 */
+	private void paint(int cell, byte colour){
+		if(colours[cell] == colour)
+			return;
+		colours[cell] = colour;
+		draw(cell);
+	}
+
+	/**
+	 * Draws a cell with its colour and its agents.
+	 */
+	private void draw(int cell){
+		int x = (cell % width) * dim;
+		int y = (cell / width) * dim;
+		graphics.setColor(PALETTE[colours[cell]]);
+		graphics.fillRect(x, y, dim, dim);
+		int first = firstAgent[cell];
+		if(first == 0)
+			return;
+		label.setLength(0);
+		int numAg = 0;
+		for(int a = first; a != 0; a = nextAgent[a]){
+			if(numAg > 0)
+				label.append(',');
+			label.append(a);
+			numAg++;
+		}
+		String string = label.toString();
+		BufferedImage glyph = glyphs.get(string);
+		if(glyph == null){
+			glyph = glyph(string, numAg);
+			glyphs.put(string, glyph);
+		}
+		graphics.drawImage(glyph, x, y, null);
+	}
+
+	/**
+	 * Draws the label of the given agents: a circle with their ids.
+	 */
+	private BufferedImage glyph(String string, int numAg){
+		BufferedImage glyph = new BufferedImage(dim, dim, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = glyph.createGraphics();
+		g.setColor(Color.YELLOW);
+		g.fillOval(1, 1, Math.max(dim - 2, 1), Math.max(dim - 2, 1));
+		if(dim >= LABELLED){
+			g.setColor(Color.BLACK);
+			int fontDivider = string.length() - numAg + 1;
+			Font derived = fontDivider < fonts.length ? fonts[fontDivider] : null;
+			if(derived == null){
+				derived = font.deriveFont(((float)dim) / fontDivider);
+				if(fontDivider < fonts.length)
+					fonts[fontDivider] = derived;
+			}
+			g.setFont(derived);
+			FontMetrics metrics = g.getFontMetrics();
+			int stringW = metrics.stringWidth(string);
+			int stringH = metrics.getAscent() - metrics.getDescent();
+			g.drawString(string, (dim - stringW) / 2, (stringH + dim) / 2);
+		}
+		g.dispose();
+		return glyph;
+	}
+}
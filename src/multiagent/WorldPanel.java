@@ -2,12 +2,22 @@ package multiagent;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.*;
+import java.util.concurrent.locks.*;
 
 import javax.swing.*;
 
 /**
  * This class is used to display graphically the state of the world.
- * <p> When pressing any button on the keyboard, the simulation stops or restarts.
+ * <p> The simulation runs on a thread of its own (see SimulationLoop), by default at one step per
+ * frame interval, while the panel paints the state of the world between two steps at every frame.
+ * When pressing space, or any button without a use of its own, the simulation stops or restarts:
+ * the right arrow performs a single step, F fast-forwards as fast as possible and the up and down
+ * arrows double or halve the steps per second.
+ * <p> The panel can also replay a run recorded by TrajectoryRecorder, painting the state
+ * reconstructed by a TrajectoryReader: space plays or pauses, the arrows step forward and back,
+ * R reverses the direction of play, Page Up and Page Down jump by JUMP steps, Home and End go to
+ * the ends of the log and G asks for the step to go to.
  * @version 1.1
  * @author Albani Dario
  * 
@@ -22,27 +32,64 @@ public class WorldPanel extends JPanel implements ActionListener, KeyListener{
 	 * Creates a new WorldPanel with a new AgentSim and a new World.
 	 * A frame is created to contain the panel, which is registered as a KeyListener for it.
 	 * The scene is displayed.
+	 * The seed of the simulation can be given as first argument to replay a previous run,
+	 * after the options --steps-per-second and --steps-per-frame, each followed by a number,
+	 * which set the speed of the simulation.
+	 * With --replay followed by a file, the run recorded in that file is replayed instead.
 	 */
 	public static void main(String[]args)throws Exception{
+		if(args.length>1 && args[0].equals("--replay")){
+			TrajectoryReader replay=TrajectoryReader.open(new File(args[1]));
+			System.out.print("Replaying steps " + replay.getFirstStep() + " to " + replay.getLastStep() + "\n");
+			show(new WorldPanel(replay,20),"Replay");
+			return;
+		}
+
 		//simulation parameters:
 		int rows=28;
 		int columns=28;
 		int weedCells=40;
 		int agents=6;
 
+		double stepsPerSecond=-1;
+		int stepsPerFrame=0;
+		int flags=0;
+		for(;flags+1<args.length && args[flags].startsWith("--");flags+=2){
+			if(args[flags].equals("--steps-per-second"))
+				stepsPerSecond=Double.parseDouble(args[flags+1]);
+			else if(args[flags].equals("--steps-per-frame"))
+				stepsPerFrame=Integer.parseInt(args[flags+1]);
+			else
+				throw new IllegalArgumentException("Unknown option: "+args[flags]);
+		}
+
+		long seed=args.length>flags ? Long.parseLong(args[flags]) : System.nanoTime();
+
 		//creating simulator with a new world
-		AgentSim sim=new AgentSim(rows,columns,weedCells,agents);
+		AgentSim sim=new AgentSim(rows,columns,weedCells,agents,seed);
+		System.out.print("Seed " + seed + "\n");
 
 		//storing world data
 		//sim.storeWorld("world.mas");
 
 		//creating simulator with a loaded world
-		//AgentSim sim=new AgentSim("world.mas",agents,initialTasks);
+		//AgentSim sim=new AgentSim("world.mas",agents,seed);
 
 		//creating WorldPanel
 		WorldPanel panel=new WorldPanel(sim,20);
+		if(stepsPerSecond>=0)
+			panel.setStepsPerSecond(stepsPerSecond);
+		panel.setStepsPerFrame(stepsPerFrame);
+		show(panel,"World");
+	}
+
+	/**
+	 * Creates a frame to contain the panel, registers the panel as a KeyListener for it
+	 * and displays the scene.
+	 */
+	private static void show(WorldPanel panel,String title){
 		//creating and setting frame
-		JFrame frame=new JFrame("World");
+		JFrame frame=new JFrame(title);
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.setContentPane(panel);
 		frame.pack();
@@ -61,180 +108,270 @@ public class WorldPanel extends JPanel implements ActionListener, KeyListener{
 	private AgentSim simulator;
 
 	/**
-	 * When this Timer fires an ActionEvent, a new step is
-	 * performed and the panel is repainted.
+	 * Thread of the simulation.
+	 */
+	private SimulationLoop loop;
+
+	/**
+	 * When this Timer fires an ActionEvent, the panel is repainted
+	 * or, when replaying, a new step is read and the panel is repainted.
 	 */
 	private Timer timer;
 
 	/**
-	 * Dimension of one cell in pixels.
+	 * Dimension of one cell in pixels: 20, or less if the world would not fit in MAX_SIDE pixels.
 	 */
 	private int dim=20;
 
-	private int stepDone = 0;
+	/**
+	 * Largest side of the panel, in pixels, down to one pixel per cell.
+	 */
+	private static final int MAX_SIDE=1000;
+
+	/**
+	 * Picture of the world, updated incrementally at each frame.
+	 */
+	private WorldImage image;
+
+	/**
+	 * Agent steps skipped by Page Up and Page Down while replaying.
+	 */
+	private static final int JUMP=1000;
+
+	/**
+	 * Recorded run being replayed, null when displaying a live simulation.
+	 */
+	private TrajectoryReader replay;
+
+	/**
+	 * True if the replay plays backward.
+	 */
+	private boolean reverse;
 
 	/**
 	 * Constructor for this class.
+	 * The simulation runs at one step every ms milliseconds, starting paused. Its thread and
+	 * the timer of the frames are started when the panel is displayed, and stopped when
+	 * the panel is removed or closed.
 	 * @param sim the simulator.
 	 * @param ms time interval between two frames, in milliseconds.
 	 */
 	public WorldPanel(AgentSim sim,int ms){
 		this.simulator=sim;
 		World world=simulator.world;
-		setPreferredSize(new Dimension(world.getWidth()*dim,world.getHeight()*dim));
+		setUp(world.getHeight(),world.getWidth());
+		loop=new SimulationLoop(sim);
+		loop.setStepsPerSecond(1000.0/ms);
 		timer=new Timer((ms),this);
 	}
 
 	/**
-	 * Displays the scene.
+	 * Constructor for replaying a recorded run.
+	 * @param replay the reader of the recorded run.
+	 * @param ms time interval between two frames, in milliseconds.
 	 */
-	public void paintComponent(Graphics g){
-		if(simulator==null){
-			return;
+	public WorldPanel(TrajectoryReader replay,int ms){
+		this.replay=replay;
+		setUp(replay.getHeight(),replay.getWidth());
+		timer=new Timer((ms),this);
+	}
+
+	/**
+	 * Starts the simulation thread and the timer of the frames when the panel is displayed.
+	 */
+	@Override
+	public void addNotify(){
+		super.addNotify();
+		if(loop!=null && !loop.isOver()){
+			loop.start();
+			timer.start();
 		}
-		World world = simulator.world;
-		for(int row=0;row<world.getHeight();row++){
-			for(int col=0;col<world.getWidth();col++){
-				Cell cell = world.getCell(row,col);
-				if (cell.isWeed()){
-					g.setColor(Color.GREEN);
-				}
-				//se ho rimosso l'erba, la coloro di marrone
-				else if(cell.isSprayed()){
-					Color p = new Color(102,51,0);
-					g.setColor(p);
-				}
-				else {
-					double attr_col = cell.getAttractivePot();
-					float col_ = cell.lastVisited();
-					//potenziale negativo, differenti gradazioni di colore
-					if(attr_col <= 3.0f && attr_col > 2.5f) {
-						Color p = new Color(0,0,255);
-						g.setColor(p);
-					}
-					else if(attr_col <= 2.5f && attr_col > 2.0f) {
-						Color p = new Color(60,60,255);
-						g.setColor(p);
-					}
-					else if(attr_col <= 2.0f && attr_col > 1.5f) {
-						Color p = new Color(88,88,255);
-						g.setColor(p);
-					}
-					else if(attr_col <= 1.5f && attr_col > 1.0f) {
-						Color p = new Color(100,100,255);
-						g.setColor(p);
-					}
-					else if(attr_col <= 1.0f && attr_col > 0.5f) {
-						Color p = new Color(160,160,255);
-						g.setColor(p);
-					}
-					//potenziale repulsivo, differenti gradazioni di colore
-					else if(col_ <= 1.0f  && col_ > 0.9f) {
-						Color p = new Color(255,0,0);
-						g.setColor(p);
-					}
-					else if(col_ <= 0.9f && col_ > 0.8f)  {
-						Color p = new Color(255,40,40);
-						g.setColor(p);
-					}
-					else if(col_ <= 0.8f && col_ > 0.6f)  {
-						Color p = new Color(255,70,70);
-						g.setColor(p);
-					}
-					else if(col <= 0.6f && col > 0.4f) {
-						Color p = new Color(255,105,105);
-						g.setColor(p);
-					}
-					else if(col <= 0.4f && col > 0.3f) {
-						Color p = new Color(255,130,130);
-						g.setColor(p);
-					}
-					else if(col <= 0.3f && col > 0.2f) {
-						Color p = new Color(255,166,166);
-						g.setColor(p);
-					}
-					else if(col <= 0.2f && col > 0.1f) {
-						Color p = new Color(255,208,208);
-						g.setColor(p);
-					}
-					//free cell
-					else
-						g.setColor(Color.WHITE);	
-				}
-
-				g.fillRect(col*dim,row*dim,dim,dim);
-				g.drawRect(col*dim,row*dim,dim,dim);
-
-				java.util.List<Integer>agents=world.getAgents(row,col);
-				int numAg=agents.size();
-				if(numAg!=0){
-					g.setColor(Color.YELLOW);
-					g.fillOval(col*dim+1,row*dim+1,dim-2,dim-2);
-
-					g.setColor(Color.BLACK);
-					StringBuilder builder=new StringBuilder();
-					for(Integer a : agents){
-						builder.append(a);
-						builder.append(',');
-					}
-					builder.deleteCharAt(builder.length()-1);
-					String string=builder.toString();
-
-					int fontDivider=string.length()-numAg+1;
-					Font font=g.getFont().deriveFont(((float)dim)/fontDivider);
-					g.setFont(font);
-					FontMetrics metrics=g.getFontMetrics(font);
-					int stringW=metrics.stringWidth(string);
-					int stringH=metrics.getAscent()-metrics.getDescent();
-					g.drawString(string,col*dim+(dim-stringW)/2,row*dim+(stringH+dim)/2);
-				}
-			}
+	}
+
+	/**
+	 * Stops the simulation thread and the timer when the panel is removed from its frame.
+	 */
+	@Override
+	public void removeNotify(){
+		close();
+		super.removeNotify();
+	}
+
+	/**
+	 * Stops the timer and the simulation thread, waiting for the current step to end.
+	 * The panel can be displayed again afterwards, going on from the same step.
+	 */
+	public void close(){
+		timer.stop();
+		if(loop==null)
+			return;
+		try{
+			loop.stop();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
 		}
 	}
 
 	/**
-	 * Method overridden to have immediate refresh of the scene.
+	 * Sizes the cells and the panel for a world with the given number of rows and columns.
+	 */
+	private void setUp(int rows,int columns){
+		dim=Math.max(1,Math.min(dim,MAX_SIDE/Math.max(rows,columns)));
+		setPreferredSize(new Dimension(columns*dim,rows*dim));
+		image=new WorldImage(rows,columns,dim,getFont());
+	}
+
+	/**
+	 * Displays the scene: the picture of the world is brought up to date,
+	 * redrawing only the cells that changed, and copied to the panel.
 	 */
-	public void repaint(){
-		Graphics g=getGraphics();
-		if(g!=null)
-			paintComponent(g);
+	public void paintComponent(Graphics g){
+		if(replay!=null)
+			image.update(replay);
+		else if(simulator!=null){
+			//il mondo non cambia mentre lo disegno
+			Lock lock=loop.getLock();
+			lock.lock();
+			try{
+				image.update(simulator.world);
+			}finally{
+				lock.unlock();
+			}
+		}
 		else
-			super.repaint();
+			return;
+		g.drawImage(image.getImage(),0,0,null);
 	}
 
 	/**
-	 * Performs a new step and repaints the panel.
-	 * If doOneStep() returns true, the simulation is stopped
-	 * and a message dialog is displayed.
+	 * Repaints the panel, granting the steps of the next frame to the simulation.
+	 * When the simulation is over, the timer is stopped and the number of steps is printed.
+	 * While replaying, reads a new step and repaints the panel.
 	 */
 	//da qui parte all
 	public void actionPerformed(ActionEvent evt){
+		if(evt.getSource()==timer && replay!=null){
+			boolean moved;
+			try{
+				moved=reverse ? replay.previous() : replay.next();
+			}catch(IOException e){
+				timer.stop();
+				throw new UncheckedIOException(e);
+			}
+			if(!moved)
+				timer.stop();
+			showStep();
+			return;
+		}
 		if(evt.getSource()==timer){
-			boolean stop=simulator.doOneStep();
-			for(int row=this.simulator.world.getHeight()-1;row>=0;row--)
-				for(int col=this.simulator.world.getWidth()-1;col>=0;col--) {
-					this.simulator.world.getCell(row,col).decreaseVisited();
-					this.simulator.world.getCell(row,col).decreaseAttractivePot();
-				}
-			if(stop){
+			loop.frame();
+			if(loop.isOver()){
 				timer.stop();
 				//stampo il numero di step fatti
-				System.out.print("Step done " + stepDone + "\n");
+				System.out.print("Step done " + loop.getStepsDone() + "\n");
 				//JOptionPane.showMessageDialog(null,"Simulation is over!\n\n"+simulator.statsToString());
-				return;
 			}
-			stepDone++;
+			String state=loop.isOver() ? "over" : loop.isPaused() ? "paused" : loop.isFastForward() ? "fast-forward"
+					: loop.getStepsPerFrame()>0 ? loop.getStepsPerFrame()+" steps per frame" : loop.getStepsPerSecond()+" steps per second";
+			setTitle("World - step "+loop.getStepsDone()+" ("+state+")");
 			repaint();
 		}
 	}
 
 	/**
-	 * Stops or restarts the simulation when any key is pressed.
+	 * Controls the simulation as described for this class.
+	 * While replaying, moves through the recorded run.
 	 */
 	public void keyPressed(KeyEvent evt){
-		if(timer.isRunning())timer.stop();
-		else timer.start();
+		if(replay!=null){
+			try{
+				replayKey(evt.getKeyCode());
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+			return;
+		}
+		switch(evt.getKeyCode()){
+		case KeyEvent.VK_RIGHT:
+			loop.setPaused(true);
+			loop.step();
+			break;
+		case KeyEvent.VK_F:
+			loop.setFastForward(!loop.isFastForward());
+			break;
+		case KeyEvent.VK_UP:
+			loop.setStepsPerSecond(loop.getStepsPerSecond()*2);
+			break;
+		case KeyEvent.VK_DOWN:
+			loop.setStepsPerSecond(loop.getStepsPerSecond()/2);
+			break;
+		default:
+			loop.setPaused(!loop.isPaused());
+		}
+	}
+
+	private void replayKey(int key)throws IOException{
+		long step=replay.getStep();
+		switch(key){
+		case KeyEvent.VK_SPACE:
+			if(timer.isRunning())timer.stop();
+			else timer.start();
+			return;
+		case KeyEvent.VK_R:
+			reverse=!reverse;
+			return;
+		case KeyEvent.VK_RIGHT:
+			timer.stop();
+			replay.next();
+			break;
+		case KeyEvent.VK_LEFT:
+			timer.stop();
+			replay.previous();
+			break;
+		case KeyEvent.VK_PAGE_DOWN:
+			replay.seek(step+JUMP);
+			break;
+		case KeyEvent.VK_PAGE_UP:
+			replay.seek(step-JUMP);
+			break;
+		case KeyEvent.VK_HOME:
+			replay.seek(replay.getFirstStep());
+			break;
+		case KeyEvent.VK_END:
+			replay.seek(replay.getLastStep());
+			break;
+		case KeyEvent.VK_G:
+			timer.stop();
+			String answer=JOptionPane.showInputDialog(this,"Go to step ("+replay.getFirstStep()+" - "+replay.getLastStep()+")",step);
+			if(answer==null)
+				return;
+			try{
+				replay.seek(Long.parseLong(answer.trim()));
+			}catch(NumberFormatException e){
+				return;
+			}
+			break;
+		default:
+			return;
+		}
+		showStep();
+	}
+
+	/**
+	 * Shows the current step of the replay in the title of the frame and repaints the panel.
+	 */
+	private void showStep(){
+		setTitle("Replay - step "+replay.getStep()+" of "+replay.getLastStep());
+		repaint();
+	}
+
+	/**
+	 * Sets the title of the frame containing the panel.
+	 */
+	private void setTitle(String title){
+		Window window=SwingUtilities.getWindowAncestor(this);
+		if(window instanceof Frame)
+			((Frame)window).setTitle(title);
 	}
 
 	/**
@@ -256,4 +393,22 @@ public class WorldPanel extends JPanel implements ActionListener, KeyListener{
 	public void setTimeDelay(int ms){
 		timer.setDelay(ms);
 	}
+
+	/**
+	 * Sets the target speed of the simulation.
+	 * @param stepsPerSecond the steps per second, 0 to run as fast as possible.
+	 */
+	public void setStepsPerSecond(double stepsPerSecond){
+		if(loop!=null)
+			loop.setStepsPerSecond(stepsPerSecond);
+	}
+
+	/**
+	 * Ties the speed of the simulation to the frames, overriding the steps per second.
+	 * @param stepsPerFrame the steps performed at each frame, 0 not to tie them.
+	 */
+	public void setStepsPerFrame(int stepsPerFrame){
+		if(loop!=null)
+			loop.setStepsPerFrame(stepsPerFrame);
+	}
 }
@@ -36,8 +36,9 @@ public class DepthTree {
 	public DepthTree(World world, int numOfNodes) {
 		this.nodes = new LinkedList<Node>();
 		this.world = world;
+		int numOfTasks = this.world.getOpenTaskCount();
 		for(int n = 0; n < numOfNodes; n++){
-			this.nodes.add(new Node(n, this.world.getUncompletedTask().size()));
+			this.nodes.add(new Node(n, numOfTasks));
 		}
 	}
 